@@ -2,6 +2,7 @@ package ecommerce;
 
 import ecommerce.model.*;
 import ecommerce.service.OrderService;
+import ecommerce.service.ProductService;
 import ecommerce.ui.*;
 import java.io.IOException;
 import java.util.concurrent.Executors;
@@ -13,9 +14,18 @@ public class EcommerceApp {
 
     private static LoginFrame loginFrame;
 
+    // One catalog per process, shared by every window so sessions see each other's stock reservations
+    private static ProductService productService;
+
     public static void main(String[] args) throws IOException {
 
+        // Edits are journaled instead of rewriting products.csv. With --columnar the
+        // catalog is held in columns, for catalogs too large to keep as objects
+        boolean columnar = args.length > 0 && args[0].equals("--columnar");
+        productService = new ProductService(ProductService.PersistenceMode.JOURNAL,
+                columnar ? ProductService.StoreLayout.COLUMNAR : ProductService.StoreLayout.OBJECTS);
         OrderService orderService = new OrderService();
+        orderService.recoverCheckouts(productService); // finish checkouts a crash interrupted
         orderService.fillQueue();
         ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
         scheduler.scheduleAtFixedRate(() -> {
@@ -25,6 +35,8 @@ public class EcommerceApp {
                 e.printStackTrace();
             }
         }, 1, 2, TimeUnit.MINUTES);
+        // Save orders whose checkout went through but whose rows could not be written yet
+        scheduler.scheduleWithFixedDelay(orderService::retryStalledCheckouts, 30, 30, TimeUnit.SECONDS);
 
         // Create the login frame on the Swing event thread
         SwingUtilities.invokeLater(() -> {
@@ -43,7 +55,7 @@ public class EcommerceApp {
         if (role == Role.ADMIN) {
             SwingUtilities.invokeLater(() -> {
                 try {
-                    new AdminFrame();
+                    new AdminFrame(productService);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -51,7 +63,7 @@ public class EcommerceApp {
         } else if (role == Role.CUSTOMER) {
             SwingUtilities.invokeLater(() -> {
                 try {
-                    new UserFrame(username);
+                    new UserFrame(username, productService);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
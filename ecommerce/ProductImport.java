@@ -0,0 +1,39 @@
+package ecommerce;
+
+import ecommerce.service.ProductService;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Command-line tool that bulk-imports new products into the catalog, e.g. a
+ * supplier feed. Run it from the project root so the data files are found:
+ *
+ * java ecommerce.ProductImport new_products.csv [--append]
+ *
+ * The CSV needs a header row followed by rows of name, category, price,
+ * stock. By default the products go to products.journal, like edits made
+ * from the admin screen, so the import is safe while the app is running.
+ * With --append they are appended to products.csv instead, under the same
+ * lock the app's compaction takes.
+ */
+public class ProductImport {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: java ecommerce.ProductImport <products.csv> [--append]");
+            System.exit(1);
+        }
+        File file = new File(args[0]);
+        if (!file.exists()) {
+            System.out.println("Import file not found: " + file);
+            System.exit(1);
+        }
+        boolean append = args.length > 1 && args[1].equals("--append");
+
+        long start = System.currentTimeMillis();
+        ProductService productService = new ProductService(
+                append ? ProductService.PersistenceMode.REWRITE : ProductService.PersistenceMode.JOURNAL);
+        int imported = productService.importProducts(file);
+        System.out.println("Done: " + imported + " product(s) in " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
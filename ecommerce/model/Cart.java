@@ -1,9 +1,11 @@
 package ecommerce.model;
 
 import ecommerce.service.ProductService;
+import ecommerce.service.StockReservation;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -19,6 +21,12 @@ public class Cart {
     // Using a map avoids duplicate items and allows for easy quantity updates
     private Map<String, CartItem> items = new HashMap<>(); // key is product ID
 
+    // How long stock added to the cart stays held for this customer (15 minutes)
+    public static final long HOLD_MILLIS = 15 * 60 * 1000;
+
+    // Stock holds taken for each cart line, released on removal or expiry
+    private Map<String, List<StockReservation>> holds = new HashMap<>(); // key is product ID
+
     /**
      * Adds a product to the cart or increases product quantity.
      *
@@ -42,6 +50,99 @@ public class Cart {
         }
     }
 
+    /**
+     * Holds the stock for a product and adds it to the cart. The units stay
+     * reserved for this cart for {@link #HOLD_MILLIS}
+     *
+     * @param p The product to add
+     * @param quantity The quantity to add
+     * @param productService The service that owns the product catalog
+     * @return false (and the cart is unchanged) if not enough stock is
+     * available
+     */
+    public boolean addWithHold(Product p, int quantity, ProductService productService) {
+        if (quantity < 1) {
+            throw new IllegalArgumentException("Quantity must be greater than zero");
+        }
+        StockReservation hold = productService.holdStock(Map.of(Integer.parseInt(p.getId()), quantity), HOLD_MILLIS);
+        if (hold == null) {
+            return false;
+        }
+        add(p, quantity);
+        holds.computeIfAbsent(p.getId(), id -> new ArrayList<>()).add(hold);
+        return true;
+    }
+
+    /**
+     * Changes the quantity of a product in the cart and its stock hold to
+     * match. Only the difference is held or given back, so the units already
+     * held stay held until the change succeeds. If the extra units cannot be
+     * held the old quantity is kept
+     *
+     * @param productId The ID of the product to update
+     * @param quantity The new quantity, must be positive
+     * @param productService The service that owns the product catalog
+     * @return false if not enough stock is available for the new quantity
+     */
+    public boolean setHeldQuantity(String productId, int quantity, ProductService productService) {
+        CartItem item = items.get(productId);
+        int id = Integer.parseInt(productId);
+        int delta = quantity - item.getQuantity();
+        if (delta > 0) {
+            StockReservation hold = productService.holdStock(Map.of(id, delta), HOLD_MILLIS);
+            if (hold == null) {
+                return false; // the existing holds are untouched
+            }
+            holds.computeIfAbsent(productId, key -> new ArrayList<>()).add(hold);
+        } else if (delta < 0) {
+            List<StockReservation> productHolds = holds.remove(productId);
+            if (productHolds != null) {
+                StockReservation hold = productService.shrinkHolds(productHolds, id, quantity, HOLD_MILLIS);
+                if (hold != null) {
+                    holds.computeIfAbsent(productId, key -> new ArrayList<>()).add(hold);
+                }
+            }
+        }
+        item.setQuantity(quantity);
+        return true;
+    }
+
+    /**
+     * Removes a product from the cart and gives its held stock back
+     *
+     * @param productId The ID of the product to remove
+     * @param productService The service that owns the product catalog
+     */
+    public void remove(String productId, ProductService productService) {
+        releaseHolds(productId, productService);
+        items.remove(productId);
+    }
+
+    /**
+     * Gives back the held stock of every product in the cart, e.g. when the
+     * customer logs out. The cart contents are kept
+     *
+     * @param productService The service that owns the product catalog
+     */
+    public void releaseHolds(ProductService productService) {
+        for (List<StockReservation> productHolds : holds.values()) {
+            for (StockReservation hold : productHolds) {
+                productService.releaseReservation(hold);
+            }
+        }
+        holds.clear();
+    }
+
+    // Releases the holds of one cart line
+    private void releaseHolds(String productId, ProductService productService) {
+        List<StockReservation> productHolds = holds.remove(productId);
+        if (productHolds != null) {
+            for (StockReservation hold : productHolds) {
+                productService.releaseReservation(hold);
+            }
+        }
+    }
+
     /**
      * Removes a product from the cart by its product ID. Used when a customer
      * deleted an item from their cart.
@@ -95,14 +196,45 @@ public class Cart {
         return productsInCart.toString();
     }
 
+    /**
+     * Decrements stock for every product in the cart. All lines are sent to
+     * ProductService as one batch so the catalog is written once per checkout
+     * rather than once per cart line. This is not crash-safe on its own;
+     * checkout uses OrderService.placeOrder, which logs the stock change and
+     * the order together.
+     *
+     * @param productService The service that owns the product catalog
+     * @throws IOException if the stock change cannot be persisted
+     */
     public void updateProductsStock(ProductService productService) throws IOException {
+        Map<Integer, Integer> deltas = new HashMap<>();
         for (CartItem item : items.values()) {
-            productService.updateProduct(Integer.parseInt(item.getProduct().getId()),
-                    item.getProduct().getName(),
-                    item.getProduct().getCategory(),
-                    item.getProduct().getPrice(),
-                    item.getProduct().getAvailableStock() - item.getQuantity());
+            deltas.merge(Integer.parseInt(item.getProduct().getId()), -item.getQuantity(), Integer::sum);
         }
+        productService.adjustStock(deltas);
+    }
+
+    /**
+     * Reserves the stock for every product in the cart at once, so no other
+     * checkout can take it before this one is committed. Stock the cart
+     * still holds is reused; lines whose hold expired are reserved again.
+     * The cart's holds are used up either way.
+     *
+     * @param productService The service that owns the product catalog
+     * @return the reservation, or null if some product no longer has enough
+     * stock
+     */
+    public StockReservation reserveStock(ProductService productService) {
+        Map<Integer, Integer> quantities = new HashMap<>();
+        for (CartItem item : items.values()) {
+            quantities.merge(Integer.parseInt(item.getProduct().getId()), item.getQuantity(), Integer::sum);
+        }
+        List<StockReservation> cartHolds = new ArrayList<>();
+        for (List<StockReservation> productHolds : holds.values()) {
+            cartHolds.addAll(productHolds);
+        }
+        holds.clear();
+        return productService.reserveStock(quantities, cartHolds);
     }
 
     public boolean validateProduct(String name) throws IOException {
@@ -123,8 +255,15 @@ public class Cart {
         return items.isEmpty();
     }
 
-    // Clears all items from the cart
-    public void clear() {
+    /**
+     * Clears all items from the cart and gives back any stock they still
+     * hold. After a checkout the holds are already used up, so nothing is
+     * released twice
+     *
+     * @param productService The service that owns the product catalog
+     */
+    public void clear(ProductService productService) {
+        releaseHolds(productService);
         items.clear();
     }
 }
@@ -0,0 +1,38 @@
+package ecommerce.model;
+
+/**
+ * StockState is the stock level shown to customers instead of the exact
+ * count: In Stock (more than 10), Low Stock (1 to 10) or Out of Stock.
+ */
+public enum StockState {
+    IN_STOCK("In Stock"), LOW_STOCK("Low Stock"), OUT_OF_STOCK("Out of Stock");
+
+    // Most units a product can have and still be LOW_STOCK
+    public static final int LOW_STOCK_LIMIT = 10;
+
+    private final String label;
+
+    StockState(String label) {
+        this.label = label;
+    }
+
+    /**
+     * Returns the state for a stock count
+     *
+     * @param stock available units
+     * @return matching stock state
+     */
+    public static StockState of(int stock) {
+        if (stock > LOW_STOCK_LIMIT) {
+            return IN_STOCK;
+        } else if (stock > 0) {
+            return LOW_STOCK;
+        }
+        return OUT_OF_STOCK;
+    }
+
+    // Returns the text shown in product listings
+    public String getLabel() {
+        return label;
+    }
+}
@@ -2,49 +2,37 @@ package ecommerce.service;
 
 import ecommerce.model.Role;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.Scanner;
 // This class handles all user authentication 
 // It loads credintials from a CSV file and stores them in memory
 // LoginFrame calls authenticate() to determine whether a user exists and what role they have 
 
 public class AuthService {
 
-    // Scanner used to read the CSV file
-    private final Scanner fileReader;
-
     // Maps username --> password (simple in-memory storage for project scope)
     private final HashMap<String, String> logins;
 
     // Maps username --> role (role stored as string, converted to enum on retrieval)
     private final HashMap<String, String> roles;
 
-    public AuthService() throws FileNotFoundException {
+    public AuthService() throws IOException {
         // Open the credintials CSV file and read in the data 
         // Expected format: username,password,role
-        this.fileReader = new Scanner(new File("ecommerce/data/logins.csv"));
+        CsvReader fileReader = new CsvReader(new File("ecommerce/data/logins.csv"));
 
         this.logins = new HashMap<>();
         this.roles = new HashMap<>();
 
-        fileReader.nextLine(); // Skip header line
+        fileReader.next(); // Skip header line
 
         // Load each user record and populate the HashMaps 
-        while (fileReader.hasNextLine()) {
-            String line = fileReader.nextLine();
-
-            // Split by comma, allows additional whitespace 
-            String[] parts = line.split(",\\s*");
-
-            // Defensive trim (avoids whitespace bugs)
-            for (String part : parts) {
-                part = part.trim();
-            }
-
-            //parts[0] = username, parts[1] = password, parts[2] = role
-            logins.put(parts[0], parts[1]);
-            roles.put(parts[0], parts[2]);
+        // (the tokenizer trims whitespace around every field)
+        while (fileReader.next()) {
+            //field 0 = username, field 1 = password, field 2 = role
+            String username = fileReader.field(0);
+            logins.put(username, fileReader.field(1));
+            roles.put(username, fileReader.field(2));
         }
         //close file reader 
         fileReader.close();
@@ -0,0 +1,90 @@
+package ecommerce.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CatalogLock serializes changes to one of the catalog files across threads
+ * and across processes (the app and the import tool can run at the same
+ * time). It pairs an in-process lock with an OS lock on a small sidecar lock
+ * file, so it works whichever ProductService or ProductJournal instance
+ * takes it.
+ *
+ * The lock is reentrant for the thread holding it. There is one CatalogLock
+ * per lock file in a process, see {@link #forFile(File)}.
+ */
+class CatalogLock {
+
+    // lock file path --> its lock, the OS lock can only be held once per process
+    private static final ConcurrentHashMap<String, CatalogLock> LOCKS = new ConcurrentHashMap<>();
+
+    private final File lockFile;
+    private final ReentrantLock threads = new ReentrantLock();
+
+    // Open while some thread of this process holds the lock
+    private FileChannel channel;
+    private FileLock fileLock;
+
+    private CatalogLock(File lockFile) {
+        this.lockFile = lockFile;
+    }
+
+    /**
+     * Returns the process-wide lock for a lock file
+     *
+     * @param lockFile sidecar file the OS lock is taken on, created on first use
+     * @return the lock
+     */
+    static CatalogLock forFile(File lockFile) {
+        return LOCKS.computeIfAbsent(lockFile.getAbsolutePath(), path -> new CatalogLock(lockFile));
+    }
+
+    /**
+     * Waits until no other thread or process holds the lock, then takes it
+     *
+     * @throws IOException if the lock file cannot be opened or locked
+     */
+    void lock() throws IOException {
+        threads.lock();
+        if (threads.getHoldCount() > 1) {
+            return; // the OS lock is already ours
+        }
+        try {
+            channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            fileLock = channel.lock();
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            threads.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Releases one hold on the lock. The OS lock is released with the last one
+     *
+     * @throws IOException if the lock file cannot be released
+     */
+    void unlock() throws IOException {
+        try {
+            if (threads.getHoldCount() == 1) {
+                try {
+                    fileLock.release();
+                } finally {
+                    channel.close();
+                    channel = null;
+                    fileLock = null;
+                }
+            }
+        } finally {
+            threads.unlock();
+        }
+    }
+}
@@ -0,0 +1,986 @@
+package ecommerce.service;
+
+import ecommerce.model.Product;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+/**
+ * CatalogSnapshot is one immutable version of the catalog: the products in
+ * catalog order, their ID and name lookups and the name-search, category and
+ * range indexes. ProductService publishes a new snapshot after every change
+ * through a volatile field, so readers on any thread only dereference that
+ * field and never lock or wait, even while an admin edit or a reload is in
+ * progress.
+ *
+ * Copying the whole catalog on every edit would make each edit cost O(n),
+ * so a snapshot is an immutable base (products plus indexes, built once)
+ * with a small overlay of the products changed since. An edit copies only
+ * the overlay; once the overlay grows past {@link #rebaseThreshold(int)} the
+ * next snapshot gets a fresh base. Queries ask the base indexes and then
+ * patch in the overlay, whose lower-cased names and categories are worked
+ * out once when a product enters it. A batch of edits (an import, a
+ * checkout) is applied as one change.
+ *
+ * The base either holds Product objects with tree indexes over them, or
+ * (for very large catalogs) a {@link ColumnarProductStore} that hands out
+ * Product views on demand and answers price, stock and category questions
+ * from its columns. Base products are matched to the overlay by ID, so a
+ * view and the product it was built from are interchangeable.
+ *
+ * Sorted views are cached per snapshot, so a view can never mix two
+ * versions of the catalog.
+ */
+final class CatalogSnapshot {
+
+    static final CatalogSnapshot EMPTY = of(Collections.emptyList());
+
+    // Fewest overlay entries that trigger a rebase, small catalogs rebase at this size
+    private static final int MIN_REBASE = 256;
+
+    // Marks a base position deleted by the overlay while the catalog list is built
+    private static final int DROPPED = Integer.MIN_VALUE;
+
+    private final Base base;
+
+    // product ID --> its product since the base was built (DELETED if it was deleted)
+    private final LinkedHashMap<Integer, Change> changed;
+
+    // lower-cased name --> ID of the overlay product earliest in catalog order with it, kept up to date by withChanges
+    private final HashMap<String, Integer> changedNames;
+
+    private final int size;
+
+    // Catalog position the next product added to the overlay gets, after every base product
+    private final int nextPosition;
+
+    // Every product in catalog order, built on first use
+    private volatile List<Product> products;
+
+    // Sorted copies of the catalog, one per displayProducts sort option, built on first use
+    private final AtomicReferenceArray<List<Product>> sortedViews = new AtomicReferenceArray<>(7);
+
+    private CatalogSnapshot(Base base, LinkedHashMap<Integer, Change> changed, HashMap<String, Integer> changedNames,
+            int size, int nextPosition) {
+        this.base = base;
+        this.changed = changed;
+        this.changedNames = changedNames;
+        this.size = size;
+        this.nextPosition = nextPosition;
+        if (changed.isEmpty()) {
+            products = base.products();
+        }
+    }
+
+    /**
+     * Builds a snapshot of a whole catalog, holding the products as objects
+     *
+     * @param products products in catalog order
+     * @return the snapshot
+     */
+    static CatalogSnapshot of(Collection<Product> products) {
+        return of(new ObjectBase(products));
+    }
+
+    /**
+     * Builds a snapshot over a columnar copy of the catalog. The store is
+     * owned by the snapshot from then on and must not be changed. Catalog
+     * order is ID order, the order of the store's rows
+     *
+     * @param store catalog in columns
+     * @return the snapshot
+     */
+    static CatalogSnapshot of(ColumnarProductStore store) {
+        return of(new ColumnarBase(store));
+    }
+
+    private static CatalogSnapshot of(Base base) {
+        return new CatalogSnapshot(base, new LinkedHashMap<>(), new HashMap<>(), base.size(), base.size());
+    }
+
+    /**
+     * Returns a new snapshot with a batch of changes applied. Costs the size
+     * of the overlay, not of the catalog, except when it rebases
+     *
+     * @param changes product ID --> new or updated product, null to delete it
+     * @return the new snapshot, this one is left as it was
+     */
+    CatalogSnapshot withChanges(Map<Integer, Product> changes) {
+        LinkedHashMap<Integer, Change> overlay = new LinkedHashMap<>(changed);
+        HashMap<String, Integer> names = new HashMap<>(changedNames);
+        HashSet<String> stale = new HashSet<>();
+        int count = size;
+        int next = nextPosition;
+        for (Map.Entry<Integer, Product> change : changes.entrySet()) {
+            int id = change.getKey();
+            int basePosition = base.position(id);
+            Change previous = overlay.get(id);
+            boolean existed = previous != null ? previous.product != null : basePosition >= 0;
+            if (previous != null && previous.product != null && Integer.valueOf(id).equals(names.get(previous.nameKey))) {
+                names.remove(previous.nameKey); // it was the earliest with its name, look again below
+                stale.add(previous.nameKey);
+            }
+            if (change.getValue() == null && basePosition < 0) {
+                overlay.remove(id); // added and deleted since the base, nothing left to shadow
+            } else if (change.getValue() == null) {
+                overlay.put(id, Change.DELETED);
+            } else {
+                // Replacements keep their place in the catalog, re-added products go to the end
+                int position = basePosition >= 0 ? basePosition
+                        : previous != null && previous.product != null ? previous.position : next++;
+                Change updated = new Change(change.getValue(), position);
+                overlay.put(id, updated);
+                Integer earliest = names.get(updated.nameKey);
+                if (earliest == null || position < overlay.get(earliest).position) {
+                    names.put(updated.nameKey, id);
+                }
+            }
+            count += (change.getValue() != null ? 1 : 0) - (existed ? 1 : 0);
+        }
+        if (!stale.isEmpty()) {
+            // Names whose earliest overlay product changed name or left, find the new earliest
+            for (Map.Entry<Integer, Change> entry : overlay.entrySet()) {
+                Change current = entry.getValue();
+                if (current.product != null && stale.contains(current.nameKey)) {
+                    Integer earliest = names.get(current.nameKey);
+                    if (earliest == null || current.position < overlay.get(earliest).position) {
+                        names.put(current.nameKey, entry.getKey());
+                    }
+                }
+            }
+        }
+        CatalogSnapshot snapshot = new CatalogSnapshot(base, overlay, names, count, next);
+        if (overlay.size() > rebaseThreshold(count)) {
+            return of(base.rebuild(snapshot.products()));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Largest overlay kept before rebasing. Grows with the square root of the
+     * catalog so the per-edit overlay copy and the per-query patching stay
+     * small while rebases (O(n) each) stay rare
+     *
+     * @param size number of products in the catalog
+     * @return overlay size limit
+     */
+    static int rebaseThreshold(int size) {
+        return Math.max(MIN_REBASE, 8 * (int) Math.sqrt(size));
+    }
+
+    // Returns every product in catalog order (read-only)
+    List<Product> products() {
+        List<Product> all = products;
+        if (all == null) {
+            // Base positions with the overlay applied in place, then the products added since.
+            // A slot is a base position, or -(i + 1) for the i-th overlay product
+            int[] marks = new int[base.size()];
+            Product[] overlay = new Product[changed.size()];
+            int count = 0;
+            for (Map.Entry<Integer, Change> entry : changed.entrySet()) {
+                int position = base.position(entry.getKey());
+                if (position >= 0) {
+                    Product current = entry.getValue().product;
+                    if (current == null) {
+                        marks[position] = DROPPED;
+                    } else {
+                        overlay[count++] = current;
+                        marks[position] = -count;
+                    }
+                }
+            }
+            int[] slots = new int[size];
+            int filled = 0;
+            for (int position = 0; position < marks.length; position++) {
+                if (marks[position] == 0) {
+                    slots[filled++] = position;
+                } else if (marks[position] != DROPPED) {
+                    slots[filled++] = marks[position];
+                }
+            }
+            for (Map.Entry<Integer, Change> entry : changed.entrySet()) {
+                if (entry.getValue().product != null && base.position(entry.getKey()) < 0) {
+                    overlay[count++] = entry.getValue().product;
+                    slots[filled++] = -count;
+                }
+            }
+            all = new ProductList(filled, i -> slots[i] >= 0 ? base.product(slots[i]) : overlay[-slots[i] - 1]);
+            products = all;
+        }
+        return all;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Returns the product with an ID, null if there is none
+    Product byId(int id) {
+        Change change = changed.get(id);
+        if (change != null) {
+            return change.product;
+        }
+        return base.byId(id);
+    }
+
+    /**
+     * Returns the product with a name. On duplicate names the product
+     * earliest in catalog order wins
+     *
+     * @param nameKey lower-cased name
+     * @return the product, null if there is none
+     */
+    Product byName(String nameKey) {
+        Product best = null;
+        int bestPosition = Integer.MAX_VALUE;
+        for (Product product : base.named(nameKey)) {
+            // The first one may have been changed, a later one with the name then wins
+            int id = id(product);
+            if (!changed.containsKey(id)) {
+                best = product;
+                bestPosition = base.position(id);
+                break;
+            }
+        }
+        Integer changedId = changedNames.get(nameKey);
+        if (changedId != null) {
+            // Products added since the base come after every base product
+            Change change = changed.get(changedId);
+            if (change.position < bestPosition) {
+                best = change.product;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Lists the products of one category, ordered by ID
+     *
+     * @param category category name (any case), trimmed
+     * @return products in the category
+     */
+    List<Product> inCategory(String category) {
+        String key = categoryKey(category);
+        return patched(base.inCategory(category), change -> change.categoryKey.equals(key),
+                Comparator.comparingInt(CatalogSnapshot::id));
+    }
+
+    /**
+     * Counts the products in every category
+     *
+     * @return category name --> number of products, sorted by name
+     */
+    Map<String, Integer> categoryCounts() {
+        Map<String, Integer> counts = base.categoryCounts();
+        if (changed.isEmpty()) {
+            return counts;
+        }
+        TreeMap<String, Integer> patched = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        patched.putAll(counts);
+        for (Integer id : changed.keySet()) {
+            Product before = base.byId(id);
+            if (before != null) {
+                patched.computeIfPresent(before.getCategory(), (name, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+        for (Change change : changed.values()) {
+            if (change.product != null) {
+                patched.merge(change.product.getCategory(), 1, Integer::sum);
+            }
+        }
+        return patched;
+    }
+
+    /**
+     * Lists the products priced in a range, ordered by price then ID
+     *
+     * @param min lowest price (inclusive)
+     * @param max highest price (inclusive)
+     * @return matching products
+     */
+    List<Product> byPrice(double min, double max) {
+        return patched(base.byPrice(min, max),
+                change -> change.product.getPrice() >= min && change.product.getPrice() <= max,
+                Comparator.comparingDouble(Product::getPrice).thenComparingInt(CatalogSnapshot::id));
+    }
+
+    /**
+     * Lists the products whose stock lies in a range, ordered by stock then ID
+     *
+     * @param from lower bound, or null for no lower bound
+     * @param fromInclusive whether the lower bound itself is included
+     * @param to upper bound, or null for no upper bound
+     * @param toInclusive whether the upper bound itself is included
+     * @return matching products
+     */
+    List<Product> byStock(Integer from, boolean fromInclusive, Integer to, boolean toInclusive) {
+        return patched(base.byStock(from, fromInclusive, to, toInclusive),
+                change -> inRange(change.product.getAvailableStock(), from, fromInclusive, to, toInclusive),
+                Comparator.comparingInt(Product::getAvailableStock).thenComparingInt(CatalogSnapshot::id));
+    }
+
+    // Sets the IDs of the products in one category
+    void collectCategory(String category, BitSet bits) {
+        base.collectCategory(category, bits);
+        String key = categoryKey(category);
+        patch(bits, change -> change.categoryKey.equals(key));
+    }
+
+    // Sets the IDs of the products priced in a range (inclusive)
+    void collectPrice(double min, double max, BitSet bits) {
+        base.collectPrice(min, max, bits);
+        patch(bits, change -> change.product.getPrice() >= min && change.product.getPrice() <= max);
+    }
+
+    // Sets the IDs of the products whose stock lies in a range, null bounds are open
+    void collectStock(Integer from, boolean fromInclusive, Integer to, boolean toInclusive, BitSet bits) {
+        base.collectStock(from, fromInclusive, to, toInclusive, bits);
+        patch(bits, change -> inRange(change.product.getAvailableStock(), from, fromInclusive, to, toInclusive));
+    }
+
+    // Sets the IDs of the products whose name contains the query (case-insensitive)
+    void collectNames(String query, BitSet bits) {
+        base.names.collectMatches(query, bits);
+        String q = query.trim().toLowerCase(Locale.ROOT);
+        patch(bits, change -> !q.isEmpty() && change.nameKey.contains(q));
+    }
+
+    /**
+     * Finds every product whose name contains the query (case-insensitive),
+     * ranked like {@link TrigramIndex#search(String)}
+     *
+     * @param query search string
+     * @return matching products, best first
+     */
+    List<Product> search(String query) {
+        String q = query.trim().toLowerCase(Locale.ROOT);
+        ArrayList<Integer> ids = new ArrayList<>();
+        for (Integer id : base.names.search(q)) {
+            if (!changed.containsKey(id)) {
+                ids.add(id);
+            }
+        }
+        boolean patched = false;
+        for (Map.Entry<Integer, Change> entry : changed.entrySet()) {
+            Change change = entry.getValue();
+            if (change.product != null && !q.isEmpty() && change.nameKey.contains(q)) {
+                ids.add(entry.getKey());
+                patched = true;
+            }
+        }
+        if (patched) {
+            ids.sort(Comparator.comparing(this::nameKeyOf, TrigramIndex.searchOrder(q)));
+        }
+        return products(ids);
+    }
+
+    /**
+     * Finds the names closest to a possibly misspelled query, like
+     * {@link TrigramIndex#similar(String, int)}
+     *
+     * @param query search string, at least 3 characters
+     * @param k maximum number of results
+     * @return up to k products, closest first
+     */
+    List<Product> similar(String query, int k) {
+        String q = query.trim().toLowerCase(Locale.ROOT);
+        if (q.length() < 3 || k <= 0) {
+            return new ArrayList<>();
+        }
+        ArrayList<Integer> ids = new ArrayList<>();
+        // Ask for enough extra that shadowed results cannot crowd out k good ones
+        for (Integer id : base.names.similar(q, k + changed.size())) {
+            if (!changed.containsKey(id)) {
+                ids.add(id);
+            }
+        }
+        boolean patched = false;
+        for (Map.Entry<Integer, Change> entry : changed.entrySet()) {
+            Change change = entry.getValue();
+            if (change.product != null && TrigramIndex.isSimilar(q, change.nameKey)) {
+                ids.add(entry.getKey());
+                patched = true;
+            }
+        }
+        if (patched) {
+            ids.sort(Comparator.comparing(this::nameKeyOf, TrigramIndex.similarOrder(q)));
+        }
+        return products(ids.size() > k ? ids.subList(0, k) : ids);
+    }
+
+    /**
+     * Returns the catalog sorted for a sort option, sorting it on first use.
+     * Two threads asking at once may both sort, but they produce the same
+     * view and one of them is kept. Over a columnar base only the sorted
+     * positions are kept, an int per product instead of a Product
+     *
+     * @param sortValue sort option, used as the cache slot
+     * @param order comparator for the option
+     * @return sorted read-only product list
+     */
+    List<Product> sortedView(int sortValue, Comparator<Product> order) {
+        List<Product> view = sortedViews.get(sortValue);
+        if (view == null) {
+            List<Product> all = products();
+            if (base.keepsProducts()) {
+                ArrayList<Product> sorted = new ArrayList<>(all);
+                sorted.sort(order);
+                view = Collections.unmodifiableList(sorted);
+            } else {
+                // Sort positions against one copy of the views, ties keep catalog order like the list sort
+                Product[] copy = all.toArray(new Product[0]);
+                Integer[] positions = new Integer[copy.length];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = i;
+                }
+                Arrays.sort(positions, (a, b) -> order.compare(copy[a], copy[b]));
+                int[] sorted = new int[positions.length];
+                for (int i = 0; i < sorted.length; i++) {
+                    sorted[i] = positions[i];
+                }
+                view = new ProductList(sorted.length, i -> all.get(sorted[i]));
+            }
+            if (!sortedViews.compareAndSet(sortValue, null, view)) {
+                view = sortedViews.get(sortValue);
+            }
+        }
+        return view;
+    }
+
+    // Returns true if the view for a sort option has already been built
+    boolean hasSortedView(int sortValue) {
+        return sortedViews.get(sortValue) != null;
+    }
+
+    // Drops shadowed base results, adds matching overlay products and re-sorts if any were added
+    private List<Product> patched(List<Product> fromBase, Predicate<Change> matches, Comparator<Product> order) {
+        if (changed.isEmpty()) {
+            return fromBase;
+        }
+        ArrayList<Product> result = new ArrayList<>(fromBase.size());
+        for (Product product : fromBase) {
+            if (!changed.containsKey(id(product))) {
+                result.add(product);
+            }
+        }
+        int kept = result.size();
+        for (Change change : changed.values()) {
+            if (change.product != null && matches.test(change)) {
+                result.add(change.product);
+            }
+        }
+        if (result.size() > kept) {
+            result.sort(order);
+        }
+        return result;
+    }
+
+    // Makes the overlay's IDs in a base bitset match the overlay products
+    private void patch(BitSet bits, Predicate<Change> matches) {
+        for (Map.Entry<Integer, Change> entry : changed.entrySet()) {
+            bits.set(entry.getKey(), entry.getValue().product != null && matches.test(entry.getValue()));
+        }
+    }
+
+    // Looks up the products of a list of IDs, in order
+    private List<Product> products(List<Integer> ids) {
+        ArrayList<Product> result = new ArrayList<>(ids.size());
+        for (Integer id : ids) {
+            result.add(byId(id));
+        }
+        return result;
+    }
+
+    // Lower-cased name of a current product, from the overlay or the base name index
+    private String nameKeyOf(Integer id) {
+        Change change = changed.get(id);
+        return change != null ? change.nameKey : base.names.name(id);
+    }
+
+    private static boolean inRange(int value, Integer from, boolean fromInclusive, Integer to, boolean toInclusive) {
+        return (from == null || (fromInclusive ? value >= from : value > from))
+                && (to == null || (toInclusive ? value <= to : value < to));
+    }
+
+    private static int id(Product product) {
+        return Integer.parseInt(product.getId());
+    }
+
+    private static String nameKey(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static String categoryKey(String category) {
+        return category.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * A product in the overlay with its lower-cased name and category, worked
+     * out once when it enters the overlay rather than on every query
+     */
+    private static final class Change {
+
+        // Marks a product deleted since the base was built
+        static final Change DELETED = new Change(null, -1);
+
+        final Product product;
+        final String nameKey;
+        final String categoryKey;
+
+        // Position in the catalog, base position for a replaced product
+        final int position;
+
+        Change(Product product, int position) {
+            this.product = product;
+            this.nameKey = product == null ? null : nameKey(product.getName());
+            this.categoryKey = product == null ? null : categoryKey(product.getCategory());
+            this.position = position;
+        }
+    }
+
+    // Read-only list whose elements are looked up on each get
+    private static final class ProductList extends AbstractList<Product> implements RandomAccess {
+
+        private final int size;
+        private final IntFunction<Product> element;
+
+        ProductList(int size, IntFunction<Product> element) {
+            this.size = size;
+            this.element = element;
+        }
+
+        @Override
+        public Product get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + " of " + size);
+            }
+            return element.apply(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * The immutable part of a snapshot: the products in catalog order and
+     * every index over them, built once and never changed afterwards.
+     * Positions are indexes into the catalog order
+     */
+    private abstract static class Base {
+
+        final TrigramIndex names = new TrigramIndex();
+
+        abstract int size();
+
+        // Every base product in catalog order (read-only)
+        abstract List<Product> products();
+
+        abstract Product product(int position);
+
+        // Returns the position of a product ID, -1 if the base has no such product
+        abstract int position(int id);
+
+        Product byId(int id) {
+            int position = position(id);
+            return position < 0 ? null : product(position);
+        }
+
+        // Every product with a lower-cased name, in catalog order
+        abstract List<Product> named(String nameKey);
+
+        // Products of a category (any case), ordered by ID
+        abstract List<Product> inCategory(String category);
+
+        abstract void collectCategory(String category, BitSet bits);
+
+        // category name --> number of products, case-insensitive and sorted by name
+        abstract Map<String, Integer> categoryCounts();
+
+        // Products priced in a range (inclusive), ordered by price then ID
+        abstract List<Product> byPrice(double min, double max);
+
+        abstract void collectPrice(double min, double max, BitSet bits);
+
+        // Products whose stock lies in a range (null bounds are open), ordered by stock then ID
+        abstract List<Product> byStock(Integer from, boolean fromInclusive, Integer to, boolean toInclusive);
+
+        abstract void collectStock(Integer from, boolean fromInclusive, Integer to, boolean toInclusive, BitSet bits);
+
+        // Whether products() holds the products themselves rather than building views
+        abstract boolean keepsProducts();
+
+        // Builds a fresh base of the same kind for a rebase
+        abstract Base rebuild(Collection<Product> catalog);
+    }
+
+    // A base holding one Product per row, with tree indexes over them
+    private static final class ObjectBase extends Base {
+
+        private final List<Product> products;
+
+        // product ID --> position in products (IDs parsed once when the base is built)
+        private final HashMap<Integer, Integer> positions;
+
+        // lower-cased product name --> first product with it
+        private final HashMap<String, Product> byName = new HashMap<>();
+
+        // lower-cased name held by more than one product --> all of them, in catalog order
+        private final HashMap<String, List<Product>> sharedNames = new HashMap<>();
+
+        private final CategoryIndex categories = new CategoryIndex();
+        private final RangeIndex<Double> prices = new RangeIndex<>();
+        private final RangeIndex<Integer> stocks = new RangeIndex<>();
+
+        ObjectBase(Collection<Product> catalog) {
+            products = Collections.unmodifiableList(new ArrayList<>(catalog));
+            positions = new HashMap<>(products.size() * 2);
+            for (int i = 0; i < products.size(); i++) {
+                Product product = products.get(i);
+                int id = Integer.parseInt(product.getId());
+                positions.put(id, i);
+                String nameKey = nameKey(product.getName());
+                Product first = byName.putIfAbsent(nameKey, product);
+                if (first != null) {
+                    sharedNames.computeIfAbsent(nameKey, key -> new ArrayList<>(Collections.singletonList(first)))
+                            .add(product);
+                }
+                names.add(id, product.getName());
+                categories.add(id, product);
+                prices.add(product.getPrice(), id, product);
+                stocks.add(product.getAvailableStock(), id, product);
+            }
+        }
+
+        @Override
+        int size() {
+            return products.size();
+        }
+
+        @Override
+        List<Product> products() {
+            return products;
+        }
+
+        @Override
+        Product product(int position) {
+            return products.get(position);
+        }
+
+        @Override
+        int position(int id) {
+            Integer position = positions.get(id);
+            return position == null ? -1 : position;
+        }
+
+        @Override
+        List<Product> named(String nameKey) {
+            List<Product> shared = sharedNames.get(nameKey);
+            if (shared != null) {
+                return shared;
+            }
+            Product first = byName.get(nameKey);
+            return first == null ? Collections.emptyList() : Collections.singletonList(first);
+        }
+
+        @Override
+        List<Product> inCategory(String category) {
+            return categories.products(category);
+        }
+
+        @Override
+        void collectCategory(String category, BitSet bits) {
+            categories.collectIds(category, bits);
+        }
+
+        @Override
+        Map<String, Integer> categoryCounts() {
+            return categories.counts();
+        }
+
+        @Override
+        List<Product> byPrice(double min, double max) {
+            return prices.range(min, true, max, true);
+        }
+
+        @Override
+        void collectPrice(double min, double max, BitSet bits) {
+            prices.collectIds(min, true, max, true, bits);
+        }
+
+        @Override
+        List<Product> byStock(Integer from, boolean fromInclusive, Integer to, boolean toInclusive) {
+            return stocks.range(from, fromInclusive, to, toInclusive);
+        }
+
+        @Override
+        void collectStock(Integer from, boolean fromInclusive, Integer to, boolean toInclusive, BitSet bits) {
+            stocks.collectIds(from, fromInclusive, to, toInclusive, bits);
+        }
+
+        @Override
+        boolean keepsProducts() {
+            return true;
+        }
+
+        @Override
+        Base rebuild(Collection<Product> catalog) {
+            return new ObjectBase(catalog);
+        }
+    }
+
+    /**
+     * A base kept in a ColumnarProductStore. Rows are in ID order, which is
+     * the catalog order. Products are built as views when asked for; price
+     * and stock ranges are binary searches over row orders sorted once, and
+     * category questions scan the dictionary-encoded category column
+     */
+    private static final class ColumnarBase extends Base {
+
+        private final ColumnarProductStore store;
+
+        private final List<Product> products;
+
+        // lower-cased product name --> row of the first product with it
+        private final HashMap<String, Integer> byName = new HashMap<>();
+
+        // lower-cased name held by more than one product --> their rows, in ID order
+        private final HashMap<String, int[]> sharedNames = new HashMap<>();
+
+        // Rows ordered by price and by stock, ties in ID order
+        private final int[] priceOrder;
+        private final int[] stockOrder;
+
+        // lower-cased category --> its number in the arrays below
+        private final HashMap<String, Integer> categoryNumbers = new HashMap<>();
+
+        // category code --> number of its lower-cased category (codes differing only in case share one)
+        private final int[] categoryOfCode;
+
+        // category number --> spelling of its first product, and its number of products
+        private final String[] categoryNames;
+        private final int[] categorySizes;
+
+        ColumnarBase(ColumnarProductStore store) {
+            this.store = store;
+            int rows = store.size();
+            products = new ProductList(rows, store::view);
+
+            HashMap<String, List<Integer>> shared = new HashMap<>();
+            for (int row = 0; row < rows; row++) {
+                int id = store.id(row);
+                names.add(id, store.name(row));
+                String nameKey = names.name(id); // shares the name index's lower-cased copy
+                Integer first = byName.putIfAbsent(nameKey, row);
+                if (first != null) {
+                    shared.computeIfAbsent(nameKey, key -> new ArrayList<>(Collections.singletonList(first))).add(row);
+                }
+            }
+            for (Map.Entry<String, List<Integer>> entry : shared.entrySet()) {
+                sharedNames.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+            }
+
+            // Stable sorts over rows in ID order, so ties stay in ID order
+            Integer[] byPrice = new Integer[rows];
+            for (int row = 0; row < rows; row++) {
+                byPrice[row] = row;
+            }
+            Arrays.sort(byPrice, Comparator.comparingDouble(store::price));
+            priceOrder = new int[rows];
+            for (int i = 0; i < rows; i++) {
+                priceOrder[i] = byPrice[i];
+            }
+            long[] byStock = new long[rows];
+            for (int row = 0; row < rows; row++) {
+                byStock[row] = ((long) store.stock(row) << 32) | row; // stock, then row
+            }
+            Arrays.sort(byStock);
+            stockOrder = new int[rows];
+            for (int i = 0; i < rows; i++) {
+                stockOrder[i] = (int) byStock[i];
+            }
+
+            categoryOfCode = new int[store.categoryCount()];
+            for (int code = 0; code < categoryOfCode.length; code++) {
+                String key = categoryKey(store.categoryName(code));
+                Integer number = categoryNumbers.get(key);
+                if (number == null) {
+                    number = categoryNumbers.size();
+                    categoryNumbers.put(key, number);
+                }
+                categoryOfCode[code] = number;
+            }
+            categoryNames = new String[categoryNumbers.size()];
+            categorySizes = new int[categoryNumbers.size()];
+            for (int row = 0; row < rows; row++) {
+                int number = categoryOfCode[store.categoryCode(row)];
+                if (categorySizes[number]++ == 0) {
+                    categoryNames[number] = store.category(row);
+                }
+            }
+        }
+
+        @Override
+        int size() {
+            return store.size();
+        }
+
+        @Override
+        List<Product> products() {
+            return products;
+        }
+
+        @Override
+        Product product(int position) {
+            return store.view(position);
+        }
+
+        @Override
+        int position(int id) {
+            return store.findRow(id);
+        }
+
+        @Override
+        List<Product> named(String nameKey) {
+            int[] shared = sharedNames.get(nameKey);
+            if (shared != null) {
+                return views(shared, 0, shared.length);
+            }
+            Integer first = byName.get(nameKey);
+            return first == null ? Collections.emptyList() : Collections.singletonList(store.view(first));
+        }
+
+        @Override
+        List<Product> inCategory(String category) {
+            ArrayList<Product> result = new ArrayList<>();
+            Integer number = categoryNumbers.get(categoryKey(category));
+            if (number != null) {
+                for (int row = 0; row < store.size(); row++) {
+                    if (categoryOfCode[store.categoryCode(row)] == number) {
+                        result.add(store.view(row));
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        void collectCategory(String category, BitSet bits) {
+            Integer number = categoryNumbers.get(categoryKey(category));
+            if (number != null) {
+                for (int row = 0; row < store.size(); row++) {
+                    if (categoryOfCode[store.categoryCode(row)] == number) {
+                        bits.set(store.id(row));
+                    }
+                }
+            }
+        }
+
+        @Override
+        Map<String, Integer> categoryCounts() {
+            TreeMap<String, Integer> counts = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int number = 0; number < categoryNames.length; number++) {
+                if (categorySizes[number] > 0) { // replayed edits can leave spellings no row uses
+                    counts.put(categoryNames[number], categorySizes[number]);
+                }
+            }
+            return counts;
+        }
+
+        @Override
+        List<Product> byPrice(double min, double max) {
+            return views(priceOrder, firstPrice(min, false), firstPrice(max, true));
+        }
+
+        @Override
+        void collectPrice(double min, double max, BitSet bits) {
+            setIds(priceOrder, firstPrice(min, false), firstPrice(max, true), bits);
+        }
+
+        @Override
+        List<Product> byStock(Integer from, boolean fromInclusive, Integer to, boolean toInclusive) {
+            return views(stockOrder, from == null ? 0 : firstStock(from, !fromInclusive),
+                    to == null ? stockOrder.length : firstStock(to, toInclusive));
+        }
+
+        @Override
+        void collectStock(Integer from, boolean fromInclusive, Integer to, boolean toInclusive, BitSet bits) {
+            setIds(stockOrder, from == null ? 0 : firstStock(from, !fromInclusive),
+                    to == null ? stockOrder.length : firstStock(to, toInclusive), bits);
+        }
+
+        @Override
+        boolean keepsProducts() {
+            return false;
+        }
+
+        @Override
+        Base rebuild(Collection<Product> catalog) {
+            return new ColumnarBase(ColumnarProductStore.of(catalog));
+        }
+
+        // Index of the first row in price order priced at or above bound (above it if after is set)
+        private int firstPrice(double bound, boolean after) {
+            int low = 0;
+            int high = priceOrder.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int c = Double.compare(store.price(priceOrder[mid]), bound);
+                if (c < 0 || (after && c == 0)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // Index of the first row in stock order with stock at or above bound (above it if after is set)
+        private int firstStock(int bound, boolean after) {
+            int low = 0;
+            int high = stockOrder.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int stock = store.stock(stockOrder[mid]);
+                if (stock < bound || (after && stock == bound)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // Views of the rows order[from..to), empty if the range is reversed
+        private List<Product> views(int[] order, int from, int to) {
+            ArrayList<Product> result = new ArrayList<>(Math.max(0, to - from));
+            for (int i = from; i < to; i++) {
+                result.add(store.view(order[i]));
+            }
+            return result;
+        }
+
+        // Sets the IDs of the rows order[from..to)
+        private void setIds(int[] order, int from, int to, BitSet bits) {
+            for (int i = from; i < to; i++) {
+                bits.set(store.id(order[i]));
+            }
+        }
+    }
+}
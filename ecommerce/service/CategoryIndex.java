@@ -0,0 +1,88 @@
+package ecommerce.service;
+
+import ecommerce.model.Product;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * CategoryIndex groups the catalog by category so one category can be listed
+ * and every category counted without scanning all products. Categories are
+ * matched case-insensitively; a category is shown with the spelling of the
+ * first product that used it.
+ */
+class CategoryIndex {
+
+    // lower-cased category --> its products
+    private final HashMap<String, Category> categories = new HashMap<>();
+
+    /**
+     * Adds a product to its category
+     *
+     * @param id product ID
+     * @param product product to add
+     */
+    void add(int id, Product product) {
+        categories.computeIfAbsent(key(product.getCategory()), k -> new Category(product.getCategory()))
+                .products.put(id, product);
+    }
+
+    /**
+     * Lists the products of one category, ordered by ID
+     *
+     * @param category category name (any case)
+     * @return products in the category, empty if there are none
+     */
+    List<Product> products(String category) {
+        Category found = categories.get(key(category));
+        return found == null ? new ArrayList<>() : new ArrayList<>(found.products.values());
+    }
+
+    /**
+     * Sets the bit of every product ID in one category, without building a
+     * list of its products
+     *
+     * @param category category name (any case)
+     * @param bits bitset the IDs are added to
+     */
+    void collectIds(String category, BitSet bits) {
+        Category found = categories.get(key(category));
+        if (found != null) {
+            for (int id : found.products.keySet()) {
+                bits.set(id);
+            }
+        }
+    }
+
+    /**
+     * Counts the products in every category
+     *
+     * @return category name --> number of products, sorted by name
+     */
+    Map<String, Integer> counts() {
+        TreeMap<String, Integer> counts = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (Category category : categories.values()) {
+            counts.put(category.name, category.products.size());
+        }
+        return counts;
+    }
+
+    private static String key(String category) {
+        return category.toLowerCase(Locale.ROOT);
+    }
+
+    // One category and its products keyed by product ID
+    private static class Category {
+
+        private final String name;
+        private final TreeMap<Integer, Product> products = new TreeMap<>();
+
+        Category(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package ecommerce.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CheckoutLog is a write-ahead log for checkouts (`checkout.wal`). Before a
+ * checkout touches the catalog or the order files, its whole intent is
+ * written and synced as one record: the stock deltas, the `orders.csv` row
+ * and the `orderProducts.csv` row. Progress markers follow as each step is
+ * applied, so after a crash every checkout can be finished or rolled back
+ * from the log alone.
+ *
+ * Record format (one per line, all lines of a checkout share its number):
+ * B,tx,orderId / D,tx,productId,delta,... / H,tx,order row / I,tx,items row
+ * for the intent, then S,tx (stock applied), C,tx (committed) or A,tx
+ * (rolled back). The log is emptied whenever no checkout is in flight and
+ * it has grown past {@link #TRUNCATE_THRESHOLD}.
+ *
+ * The stock records a checkout writes to the product journal carry its
+ * number, and the S marker is synced while the journal is still locked,
+ * before any order row is written. So after a crash a checkout without an
+ * S marker can tell from the journal which of its deltas were applied:
+ * none (roll back) or some (apply the rest, then finish the order).
+ * Numbers start from the clock, so a later run never reuses a number that
+ * may still tag journal records after the log was emptied.
+ */
+class CheckoutLog {
+
+    // Log size (in bytes) past which an idle log is emptied
+    private static final long TRUNCATE_THRESHOLD = 64 * 1024;
+
+    private final File logFile;
+
+    // Channel positioned at the end of the log, opened on first write
+    private FileChannel channel;
+
+    // Number handed to the next checkout, set past the log's numbers on first use
+    private long nextTx = 1;
+    private boolean scanned;
+
+    // Checkouts begun but not yet committed or rolled back in this run
+    private int inFlight;
+
+    CheckoutLog(File logFile) {
+        this.logFile = logFile;
+    }
+
+    /**
+     * A logged checkout that was neither committed nor rolled back
+     */
+    static class Intent {
+
+        private final long tx;
+        private String orderId;
+        private String orderRow;
+        private String itemsRow;
+        private final Map<Integer, Integer> stockDeltas = new LinkedHashMap<>();
+        private boolean stockApplied;
+
+        private Intent(long tx) {
+            this.tx = tx;
+        }
+
+        long getTx() {
+            return tx;
+        }
+
+        String getOrderId() {
+            return orderId;
+        }
+
+        String getOrderRow() {
+            return orderRow;
+        }
+
+        String getItemsRow() {
+            return itemsRow;
+        }
+
+        // product ID --> change in stock, as logged
+        Map<Integer, Integer> getStockDeltas() {
+            return stockDeltas;
+        }
+
+        boolean isStockApplied() {
+            return stockApplied;
+        }
+    }
+
+    /**
+     * Logs the intent of a checkout and syncs it to disk before returning
+     *
+     * @param orderId order being placed
+     * @param stockDeltas product ID --> change in stock
+     * @param orderRow row to append to orders.csv
+     * @param itemsRow row to append to orderProducts.csv
+     * @return the checkout's number, used for its later markers
+     * @throws IOException if the log cannot be written
+     */
+    synchronized long begin(String orderId, Map<Integer, Integer> stockDeltas, String orderRow, String itemsRow) throws IOException {
+        if (!scanned) {
+            scan(); // never reuse a number still in the log
+        }
+        long tx = nextTx++;
+        StringBuilder record = new StringBuilder();
+        record.append("B,").append(tx).append(",").append(orderId).append("\n");
+        record.append("D,").append(tx);
+        for (Map.Entry<Integer, Integer> delta : stockDeltas.entrySet()) {
+            record.append(",").append(delta.getKey()).append(",").append(delta.getValue());
+        }
+        record.append("\n");
+        record.append("H,").append(tx).append(",").append(orderRow).append("\n");
+        record.append("I,").append(tx).append(",").append(itemsRow).append("\n");
+        write(record.toString());
+        channel.force(false);
+        inFlight++;
+        return tx;
+    }
+
+    /**
+     * Marks a checkout's stock change as applied and syncs the marker, so it
+     * is on disk before any of the checkout's order rows. Writing it twice is
+     * harmless
+     *
+     * @param tx checkout number from begin()
+     * @throws IOException if the marker cannot be written
+     */
+    synchronized void stockApplied(long tx) throws IOException {
+        write("S," + tx + "\n");
+        channel.force(false);
+    }
+
+    // Marks a checkout as fully applied
+    synchronized void commit(long tx) throws IOException {
+        write("C," + tx + "\n");
+        finished();
+    }
+
+    // Marks a checkout as abandoned, nothing of it is applied on recovery
+    synchronized void rollBack(long tx) throws IOException {
+        write("A," + tx + "\n");
+        finished();
+    }
+
+    /**
+     * Reads the checkouts left unfinished by an earlier run. Intents cut off
+     * by a crash while being logged are ignored, since nothing was applied
+     * before their sync. Each returned intent counts as in flight until it is
+     * committed or rolled back
+     *
+     * @return unfinished checkouts in log order
+     * @throws IOException if the log cannot be read
+     */
+    synchronized List<Intent> unfinished() throws IOException {
+        ArrayList<Intent> unfinished = new ArrayList<>();
+        for (Intent intent : scan()) {
+            if (intent.orderId != null && intent.orderRow != null && intent.itemsRow != null) {
+                unfinished.add(intent);
+            }
+        }
+        inFlight += unfinished.size();
+        return unfinished;
+    }
+
+    // Reads the log, returns the intents without a C or A marker
+    private Collection<Intent> scan() throws IOException {
+        scanned = true;
+        nextTx = Math.max(nextTx, System.currentTimeMillis() * 1000);
+        LinkedHashMap<Long, Intent> intents = new LinkedHashMap<>();
+        if (logFile.exists()) {
+            CsvReader reader = new CsvReader(logFile);
+            try {
+                while (reader.next()) {
+                    if (!reader.terminated() || reader.fieldCount() < 2) {
+                        continue; // torn last line
+                    }
+                    String type = reader.field(0);
+                    long tx;
+                    try {
+                        tx = Long.parseLong(reader.field(1));
+                    } catch (NumberFormatException e) {
+                        continue; // line glued to a torn one
+                    }
+                    nextTx = Math.max(nextTx, tx + 1);
+                    Intent intent = type.equals("B") ? intents.computeIfAbsent(tx, Intent::new) : intents.get(tx);
+                    if (intent == null) {
+                        continue;
+                    }
+                    switch (type) {
+                        case "B":
+                            intent.orderId = reader.fieldCount() > 2 ? reader.field(2) : null;
+                            break;
+                        case "H":
+                            intent.orderRow = rowAfterPrefix(reader.line());
+                            break;
+                        case "I":
+                            intent.itemsRow = rowAfterPrefix(reader.line());
+                            break;
+                        case "D":
+                            for (int i = 2; i + 1 < reader.fieldCount(); i += 2) {
+                                intent.stockDeltas.put(reader.intField(i), reader.intField(i + 1));
+                            }
+                            break;
+                        case "S":
+                            intent.stockApplied = true;
+                            break;
+                        case "C":
+                        case "A":
+                            intents.remove(tx);
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return intents.values();
+    }
+
+    // Drops the "X,tx," prefix of a logged row
+    private static String rowAfterPrefix(String line) {
+        return line.substring(line.indexOf(',', 2) + 1);
+    }
+
+    // One checkout left the log, empty it if nothing is in flight
+    private void finished() throws IOException {
+        inFlight--;
+        if (inFlight == 0 && channel.size() >= TRUNCATE_THRESHOLD) {
+            channel.truncate(0);
+        }
+    }
+
+    private void write(String records) throws IOException {
+        if (channel == null) {
+            channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE);
+            channel.position(channel.size()); // append
+            ByteBuffer last = ByteBuffer.allocate(1);
+            if (channel.size() > 0 && channel.read(last, channel.size() - 1) == 1 && last.get(0) != '\n') {
+                records = "\n" + records; // keep new records off a half-written line
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(records.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package ecommerce.service;
+
+import ecommerce.model.Product;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * ColumnarProductStore is a read-only copy of the catalog kept in primitive
+ * columns instead of one Product object per row: IDs and stock in `int[]`,
+ * prices in a `double[]`, and categories dictionary-encoded as an `int[]` of
+ * codes into a small table of distinct category names. Reports load one
+ * straight from the files, and ProductService keeps its catalog in one when
+ * it runs with {@link ProductService.StoreLayout#COLUMNAR}.
+ *
+ * Rows are ordered by product ID so a product is found with a binary search.
+ * Scans over price or stock (reports, out-of-stock checks) walk one array
+ * and never touch the names. A Product is only built when {@link #view(int)}
+ * is asked for one.
+ */
+class ColumnarProductStore implements ProductJournal.Replay {
+
+    private int size;
+    private int[] ids;
+    private double[] prices;
+    private int[] stocks;
+    private String[] names;
+    private int[] categoryCodes;
+
+    // category code --> category name, and the reverse
+    private final ArrayList<String> categories = new ArrayList<>();
+    private final HashMap<String, Integer> categoryCodesByName = new HashMap<>();
+
+    private ColumnarProductStore(int capacity) {
+        ids = new int[capacity];
+        prices = new double[capacity];
+        stocks = new int[capacity];
+        names = new String[capacity];
+        categoryCodes = new int[capacity];
+    }
+
+    /**
+     * Loads the products CSV straight into columns and replays the journal
+     * on top, without creating a Product per row
+     *
+     * @param productFile products CSV
+     * @param journal change log written by ProductService in JOURNAL mode
+     * @return the loaded store
+     * @throws IOException if a file cannot be read
+     */
+    static ColumnarProductStore load(File productFile, ProductJournal journal) throws IOException {
+        ColumnarProductStore store = new ColumnarProductStore(1024);
+        if (productFile.exists()) {
+            CsvReader reader = new CsvReader(productFile);
+            try {
+                reader.next(); // skip CSV header row
+                boolean sorted = true;
+                while (reader.next()) {
+                    int id = reader.intField(0);
+                    sorted &= store.size == 0 || store.ids[store.size - 1] < id;
+                    store.insert(store.size, id, reader.field(1), reader.field(2),
+                            reader.doubleField(3), reader.intField(4));
+                }
+                if (!sorted) {
+                    store.sortById();
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        journal.replay(store);
+        return store;
+    }
+
+    /**
+     * Copies a list of products into columns
+     *
+     * @param products products to store, in any order
+     * @return the store, rows ordered by ID
+     */
+    static ColumnarProductStore of(Collection<Product> products) {
+        ColumnarProductStore store = new ColumnarProductStore(Math.max(16, products.size()));
+        boolean sorted = true;
+        for (Product product : products) {
+            int id = Integer.parseInt(product.getId());
+            sorted &= store.size == 0 || store.ids[store.size - 1] < id;
+            store.insert(store.size, id, product.getName(), product.getCategory(), product.getPrice(),
+                    product.getAvailableStock());
+        }
+        if (!sorted) {
+            store.sortById();
+        }
+        return store;
+    }
+
+    // Returns how many products are stored
+    int size() {
+        return size;
+    }
+
+    /**
+     * Finds the row holding a product
+     *
+     * @param productId product ID
+     * @return row index, or -1 if there is no such product
+     */
+    int findRow(int productId) {
+        int row = Arrays.binarySearch(ids, 0, size, productId);
+        return row >= 0 ? row : -1;
+    }
+
+    int id(int row) {
+        return ids[row];
+    }
+
+    double price(int row) {
+        return prices[row];
+    }
+
+    int stock(int row) {
+        return stocks[row];
+    }
+
+    String name(int row) {
+        return names[row];
+    }
+
+    String category(int row) {
+        return categories.get(categoryCodes[row]);
+    }
+
+    // Dictionary code of a row's category, rows with the same category spelling share it
+    int categoryCode(int row) {
+        return categoryCodes[row];
+    }
+
+    // Returns how many distinct category spellings the dictionary holds, codes run from 0
+    int categoryCount() {
+        return categories.size();
+    }
+
+    String categoryName(int code) {
+        return categories.get(code);
+    }
+
+    /**
+     * Builds a Product for one row. The Product is a detached copy, later
+     * changes to the store do not affect it
+     *
+     * @param row row index
+     * @return product at that row
+     */
+    Product view(int row) {
+        return new Product(String.valueOf(ids[row]), names[row], category(row), prices[row], stocks[row]);
+    }
+
+    // Journal replay: adds or replaces a product, keeping rows ordered by ID
+    @Override
+    public void upsert(Product product) {
+        int id = Integer.parseInt(product.getId());
+        int row = Arrays.binarySearch(ids, 0, size, id);
+        if (row >= 0) {
+            names[row] = product.getName();
+            categoryCodes[row] = encode(product.getCategory());
+            prices[row] = product.getPrice();
+            stocks[row] = product.getAvailableStock();
+        } else {
+            insert(-row - 1, id, product.getName(), product.getCategory(), product.getPrice(),
+                    product.getAvailableStock());
+        }
+    }
+
+    // Journal replay: drops a product
+    @Override
+    public void delete(int productId) {
+        int row = findRow(productId);
+        if (row < 0) {
+            return;
+        }
+        int moved = size - row - 1;
+        System.arraycopy(ids, row + 1, ids, row, moved);
+        System.arraycopy(prices, row + 1, prices, row, moved);
+        System.arraycopy(stocks, row + 1, stocks, row, moved);
+        System.arraycopy(names, row + 1, names, row, moved);
+        System.arraycopy(categoryCodes, row + 1, categoryCodes, row, moved);
+        size--;
+        names[size] = null;
+    }
+
+    // Inserts a row at the given position, shifting later rows up (appends are free)
+    private void insert(int row, int id, String name, String category, double price, int stock) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            stocks = Arrays.copyOf(stocks, capacity);
+            names = Arrays.copyOf(names, capacity);
+            categoryCodes = Arrays.copyOf(categoryCodes, capacity);
+        }
+        int moved = size - row;
+        if (moved > 0) {
+            System.arraycopy(ids, row, ids, row + 1, moved);
+            System.arraycopy(prices, row, prices, row + 1, moved);
+            System.arraycopy(stocks, row, stocks, row + 1, moved);
+            System.arraycopy(names, row, names, row + 1, moved);
+            System.arraycopy(categoryCodes, row, categoryCodes, row + 1, moved);
+        }
+        ids[row] = id;
+        names[row] = name;
+        categoryCodes[row] = encode(category);
+        prices[row] = price;
+        stocks[row] = stock;
+        size++;
+    }
+
+    // Returns the code for a category, adding it to the dictionary if it is new
+    private int encode(String category) {
+        Integer code = categoryCodesByName.get(category);
+        if (code == null) {
+            code = categories.size();
+            categories.add(category);
+            categoryCodesByName.put(category, code);
+        }
+        return code;
+    }
+
+    // Reorders every column by ID, used when the CSV was not written in ID order
+    private void sortById() {
+        // Pack (id, original row) into one long so a primitive sort does the work
+        long[] keys = new long[size];
+        for (int row = 0; row < size; row++) {
+            keys[row] = ((long) ids[row] << 32) | row;
+        }
+        Arrays.sort(keys);
+
+        int[] sortedIds = new int[ids.length];
+        double[] sortedPrices = new double[ids.length];
+        int[] sortedStocks = new int[ids.length];
+        String[] sortedNames = new String[ids.length];
+        int[] sortedCodes = new int[ids.length];
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            int row = (int) keys[i];
+            if (kept > 0 && sortedIds[kept - 1] == ids[row]) {
+                kept--; // duplicate ID, the later row wins like in ProductService
+            }
+            sortedIds[kept] = ids[row];
+            sortedPrices[kept] = prices[row];
+            sortedStocks[kept] = stocks[row];
+            sortedNames[kept] = names[row];
+            sortedCodes[kept] = categoryCodes[row];
+            kept++;
+        }
+        ids = sortedIds;
+        prices = sortedPrices;
+        stocks = sortedStocks;
+        names = sortedNames;
+        categoryCodes = sortedCodes;
+        size = kept;
+    }
+}
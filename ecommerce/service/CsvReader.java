@@ -0,0 +1,402 @@
+package ecommerce.service;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * CsvReader is the shared tokenizer for every CSV file the services load. It
+ * reads bytes through a buffered FileChannel (the whole file or one byte
+ * range of it) or from an in-memory buffer, splits each row on commas
+ * without regexes, and exposes the fields as byte ranges of a reused row
+ * buffer. Numbers are parsed straight from those ranges, so reading a row
+ * allocates nothing unless a field is asked for as a String.
+ *
+ * Fields are trimmed of surrounding spaces, tabs and carriage returns, and
+ * blank rows are skipped. Quoting is not supported, matching how the CSVs are
+ * written by the rest of the application.
+ */
+class CsvReader implements Closeable {
+
+    // Exact powers of ten used by the fast path of doubleField()
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Source channel, null when reading from an in-memory buffer
+    private final FileChannel channel;
+
+    // Whether close() closes the channel (false for a region of a shared channel)
+    private final boolean ownsChannel;
+
+    // Next channel offset to read and the offset reading stops at
+    private long readPosition;
+    private long readEnd = Long.MAX_VALUE;
+
+    // Bytes read from the channel (or the in-memory buffer itself)
+    private final ByteBuffer buffer;
+
+    // Bytes of the current row, grown as needed and reused between rows
+    private byte[] row = new byte[256];
+    private int rowLength;
+
+    // Whether the current row ended with a newline (false for a final unterminated row)
+    private boolean terminated;
+
+    // Bytes consumed so far and the offset where the current row starts
+    private long position;
+    private long rowStart;
+
+    // Trimmed [start, end) range of each field in the current row
+    private int[] fieldStarts = new int[16];
+    private int[] fieldEnds = new int[16];
+    private int fieldCount;
+
+    /**
+     * Opens a CSV file for reading
+     *
+     * @param file file to read
+     * @throws IOException if the file cannot be opened
+     */
+    CsvReader(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.ownsChannel = true;
+        this.buffer = ByteBuffer.allocate(64 * 1024);
+        this.buffer.flip(); // start empty so the first read fills it
+    }
+
+    /**
+     * Opens a CSV file for reading from a byte offset, e.g. the start of a
+     * row found through an index. Offsets reported by this reader are
+     * absolute file offsets
+     *
+     * @param file file to read
+     * @param offset byte offset of the first row to read
+     * @throws IOException if the file cannot be opened
+     */
+    CsvReader(File file, long offset) throws IOException {
+        this(file);
+        readPosition = offset;
+        position = offset;
+    }
+
+    /**
+     * Reads the CSV rows in the [start, end) byte range of an open channel,
+     * e.g. one chunk of a file parsed in parallel. Reads are positional, so
+     * several readers can share the channel; closing this reader leaves the
+     * channel open. Offsets reported by this reader are absolute file offsets
+     *
+     * @param channel channel to read, owned by the caller
+     * @param start offset of the first byte to read
+     * @param end offset to stop reading at
+     */
+    CsvReader(FileChannel channel, long start, long end) {
+        this.channel = channel;
+        this.ownsChannel = false;
+        this.buffer = ByteBuffer.allocate(64 * 1024);
+        this.buffer.flip();
+        this.readPosition = start;
+        this.readEnd = end;
+        this.position = start;
+    }
+
+    /**
+     * Reads CSV rows from the remaining bytes of a buffer
+     *
+     * @param buffer bytes to parse, from position to limit
+     */
+    CsvReader(ByteBuffer buffer) {
+        this.channel = null;
+        this.ownsChannel = false;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Advances to the next non-blank row
+     *
+     * @return false once there are no more rows
+     * @throws IOException if the file cannot be read
+     */
+    boolean next() throws IOException {
+        while (readRow()) {
+            split();
+            if (fieldCount > 1 || fieldEnds[0] > fieldStarts[0]) {
+                return true;
+            }
+            // blank row, keep going
+        }
+        fieldCount = 0;
+        return false;
+    }
+
+    // Copies the bytes of the next row into the row buffer, false at end of input
+    private boolean readRow() throws IOException {
+        rowLength = 0;
+        terminated = false;
+        rowStart = position;
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                if (channel == null) {
+                    return rowLength > 0;
+                }
+                if (readPosition >= readEnd) {
+                    return rowLength > 0;
+                }
+                buffer.clear();
+                if (readEnd - readPosition < buffer.capacity()) {
+                    buffer.limit((int) (readEnd - readPosition));
+                }
+                int read = channel.read(buffer, readPosition);
+                buffer.flip();
+                if (read <= 0) {
+                    return rowLength > 0;
+                }
+                readPosition += read;
+            }
+            byte b = buffer.get();
+            position++;
+            if (b == '\n') {
+                terminated = true;
+                return true;
+            }
+            if (rowLength == row.length) {
+                byte[] bigger = new byte[row.length * 2];
+                System.arraycopy(row, 0, bigger, 0, rowLength);
+                row = bigger;
+            }
+            row[rowLength++] = b;
+        }
+    }
+
+    // Records the trimmed range of every comma-separated field in the row
+    private void split() {
+        fieldCount = 0;
+        int start = 0;
+        for (int i = 0; i <= rowLength; i++) {
+            if (i == rowLength || row[i] == ',') {
+                if (fieldCount == fieldStarts.length) {
+                    int[] starts = new int[fieldCount * 2];
+                    int[] ends = new int[fieldCount * 2];
+                    System.arraycopy(fieldStarts, 0, starts, 0, fieldCount);
+                    System.arraycopy(fieldEnds, 0, ends, 0, fieldCount);
+                    fieldStarts = starts;
+                    fieldEnds = ends;
+                }
+                int s = start;
+                int e = i;
+                while (s < e && isBlank(row[s])) {
+                    s++;
+                }
+                while (e > s && isBlank(row[e - 1])) {
+                    e--;
+                }
+                fieldStarts[fieldCount] = s;
+                fieldEnds[fieldCount] = e;
+                fieldCount++;
+                start = i + 1;
+            }
+        }
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    // Returns the number of fields in the current row
+    int fieldCount() {
+        return fieldCount;
+    }
+
+    // Returns true if the current row ended with a newline rather than end of file
+    boolean terminated() {
+        return terminated;
+    }
+
+    // Returns the byte offset where the current row starts
+    long rowOffset() {
+        return rowStart;
+    }
+
+    // Returns the byte length of the current row, without its newline
+    int rowLength() {
+        return rowLength;
+    }
+
+    // Returns the byte offset where a field's trimmed text starts
+    long fieldOffset(int i) {
+        checkField(i);
+        return rowStart + fieldStarts[i];
+    }
+
+    /**
+     * Returns how many bytes a field can take if it is overwritten in place:
+     * from the start of its trimmed text up to the next comma or the end of
+     * the row, trailing padding included (a final carriage return is not)
+     *
+     * @param i zero-based field index
+     * @return room for the field, in bytes
+     */
+    int fieldSpace(int i) {
+        checkField(i);
+        int end = fieldStarts[i];
+        while (end < rowLength && row[end] != ',') {
+            end++;
+        }
+        if (end == rowLength && end > fieldStarts[i] && row[end - 1] == '\r') {
+            end--;
+        }
+        return end - fieldStarts[i];
+    }
+
+    /**
+     * Returns a field as a String. This is the only accessor that allocates
+     *
+     * @param i zero-based field index
+     * @return trimmed field text
+     */
+    String field(int i) {
+        checkField(i);
+        return new String(row, fieldStarts[i], fieldEnds[i] - fieldStarts[i], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the whole current row as a String, untrimmed apart from a
+     * trailing carriage return
+     *
+     * @return row text
+     */
+    String line() {
+        int end = rowLength > 0 && row[rowLength - 1] == '\r' ? rowLength - 1 : rowLength;
+        return new String(row, 0, end, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares a field to a string. ASCII values (IDs, usernames, statuses)
+     * are compared byte by byte without allocating
+     *
+     * @param i zero-based field index
+     * @param value value to compare to
+     * @return true if the field equals value
+     */
+    boolean fieldEquals(int i, String value) {
+        checkField(i);
+        int start = fieldStarts[i];
+        int length = fieldEnds[i] - start;
+        for (int k = 0; k < value.length(); k++) {
+            if (value.charAt(k) > 127) {
+                return field(i).equals(value); // multi-byte UTF-8, compare decoded text
+            }
+        }
+        if (length != value.length()) {
+            return false;
+        }
+        for (int k = 0; k < length; k++) {
+            if (row[start + k] != value.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a field as an int
+     *
+     * @param i zero-based field index
+     * @return parsed value
+     * @throws NumberFormatException if the field is not a valid int
+     */
+    int intField(int i) {
+        checkField(i);
+        int pos = fieldStarts[i];
+        int end = fieldEnds[i];
+        boolean negative = false;
+        if (pos < end && (row[pos] == '-' || row[pos] == '+')) {
+            negative = row[pos] == '-';
+            pos++;
+        }
+        if (pos == end) {
+            throw new NumberFormatException("Not an int: \"" + field(i) + "\"");
+        }
+        long value = 0;
+        for (; pos < end; pos++) {
+            int digit = row[pos] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not an int: \"" + field(i) + "\"");
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new NumberFormatException("Int out of range: \"" + field(i) + "\"");
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Int out of range: \"" + field(i) + "\"");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses a field as a double. Plain decimals with up to 15 significant
+     * digits (prices, totals, tax rates) are parsed in place; anything else
+     * falls back to Double.parseDouble
+     *
+     * @param i zero-based field index
+     * @return parsed value
+     * @throws NumberFormatException if the field is not a valid number
+     */
+    double doubleField(int i) {
+        checkField(i);
+        int pos = fieldStarts[i];
+        int end = fieldEnds[i];
+        boolean negative = false;
+        if (pos < end && (row[pos] == '-' || row[pos] == '+')) {
+            negative = row[pos] == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        boolean anyDigit = false;
+        int digits = 0; // significant digits, leading zeros excluded
+        int fractionDigits = -1; // -1 until the decimal point is seen
+        for (; pos < end; pos++) {
+            byte b = row[pos];
+            if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                anyDigit = true;
+                if (mantissa != 0) {
+                    digits++;
+                }
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else {
+                break; // exponent or junk, let the JDK handle it
+            }
+        }
+        if (pos == end && anyDigit && digits <= 15 && fractionDigits < POWERS_OF_TEN.length) {
+            // Both operands are exact, so one division gives the correctly rounded result
+            double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(field(i));
+    }
+
+    private void checkField(int i) {
+        if (i < 0 || i >= fieldCount) {
+            throw new IndexOutOfBoundsException("Field " + i + " of " + fieldCount);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (ownsChannel) {
+            channel.close();
+        }
+    }
+}
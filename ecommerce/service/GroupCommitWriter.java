@@ -0,0 +1,128 @@
+package ecommerce.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GroupCommitWriter collects records submitted by many threads and writes
+ * them in batches from one background thread. After the first record of a
+ * batch arrives, the writer waits up to the flush interval for more, then
+ * hands the whole batch to a {@link BatchWriter} in one call. Each
+ * submitter gets a future that completes once its batch has been written
+ * (or fails with the batch's exception).
+ *
+ * A longer flush interval means bigger batches and fewer writes and syncs,
+ * at the cost of that much extra latency per record.
+ *
+ * @param <T> type of the records written
+ */
+class GroupCommitWriter<T> {
+
+    // Most records written in one batch
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * Writes one batch of records. Only ever called from the writer thread
+     *
+     * @param <T> type of the records written
+     */
+    interface BatchWriter<T> {
+
+        /**
+         * @param batch records in submission order
+         * @throws IOException if the batch could not be written; every
+         * record of the batch fails with it
+         */
+        void write(List<T> batch) throws IOException;
+    }
+
+    private final BatchWriter<T> batchWriter;
+    private final LinkedBlockingQueue<Pending<T>> queue = new LinkedBlockingQueue<>();
+
+    // How long to wait for more records after the first one of a batch, in milliseconds
+    private volatile long flushIntervalMillis;
+
+    /**
+     * Starts the writer thread
+     *
+     * @param threadName name of the background thread
+     * @param batchWriter writes each batch
+     * @param flushIntervalMillis how long a batch stays open, in milliseconds
+     */
+    GroupCommitWriter(String threadName, BatchWriter<T> batchWriter, long flushIntervalMillis) {
+        this.batchWriter = batchWriter;
+        this.flushIntervalMillis = flushIntervalMillis;
+        Thread thread = new Thread(this::run, threadName);
+        thread.setDaemon(true); // never keeps the app alive on exit
+        thread.start();
+    }
+
+    /**
+     * Queues a record for the next batch
+     *
+     * @param record record to write
+     * @return future completed once the record has been written
+     */
+    CompletableFuture<Void> submit(T record) {
+        Pending<T> pending = new Pending<>(record);
+        queue.add(pending);
+        return pending.done;
+    }
+
+    void setFlushInterval(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    // Writer thread: collect a batch, write it, complete its futures, repeat
+    private void run() {
+        ArrayList<Pending<T>> batch = new ArrayList<>();
+        ArrayList<T> records = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+                while (batch.size() < MAX_BATCH) {
+                    long wait = deadline - System.nanoTime();
+                    Pending<T> next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            for (Pending<T> pending : batch) {
+                records.add(pending.record);
+            }
+            try {
+                batchWriter.write(records);
+                for (Pending<T> pending : batch) {
+                    pending.done.complete(null);
+                }
+            } catch (IOException | RuntimeException e) {
+                for (Pending<T> pending : batch) {
+                    pending.done.completeExceptionally(e);
+                }
+            }
+            batch.clear();
+            records.clear();
+        }
+    }
+
+    // A queued record and the future its submitter waits on
+    private static class Pending<T> {
+
+        private final T record;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(T record) {
+            this.record = record;
+        }
+    }
+}
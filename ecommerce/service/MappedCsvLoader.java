@@ -0,0 +1,179 @@
+package ecommerce.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * MappedCsvLoader is the startup load path for the large data files
+ * (`products.csv`, `orders.csv`) and product imports. Files past
+ * {@link #PARALLEL_THRESHOLD} are split into chunks at newline boundaries
+ * and the chunks are parsed in parallel. Rows always come back in file order.
+ *
+ * Files past {@link #MAP_THRESHOLD} that the application never replaces
+ * (imports) are memory-mapped and parsed straight from the mapped bytes. A
+ * mapping stays alive until its buffer is garbage collected and on Windows
+ * it blocks moving a new file over the old one, so files the application
+ * rewrites later (`products.csv`, `orders.csv`) are read chunk by chunk
+ * through positional FileChannel reads instead. Small files are always read
+ * through a plain buffered CsvReader, a mapping costs more to set up than it
+ * saves.
+ */
+class MappedCsvLoader {
+
+    // Files at least this large are memory-mapped
+    static final long MAP_THRESHOLD = 1024 * 1024;
+
+    // Files at least this large are split into chunks parsed in parallel
+    static final long PARALLEL_THRESHOLD = 16L * 1024 * 1024;
+
+    // Largest chunk mapped at once (a single mapping is limited to 2 GB)
+    private static final long MAX_CHUNK = 256L * 1024 * 1024;
+
+    /**
+     * Turns one CSV row into a value. Called from several threads at once
+     * for large files, so implementations must not share mutable state
+     *
+     * @param <T> type of the loaded rows
+     */
+    interface RowMapper<T> {
+
+        /**
+         * @param row tokenizer positioned on the row
+         * @return the loaded value, or null to skip the row
+         */
+        T map(CsvReader row) throws IOException;
+    }
+
+    /**
+     * Loads every row of a CSV file
+     *
+     * @param file file to load
+     * @param skipHeader whether the first row is a header
+     * @param replacedLater whether the application later moves a new file
+     * over this one, such files are never memory-mapped
+     * @param mapper converts each row, may return null to skip a row
+     * @return mapped rows in file order
+     * @throws IOException if the file cannot be read
+     */
+    static <T> List<T> load(File file, boolean skipHeader, boolean replacedLater, RowMapper<T> mapper) throws IOException {
+        if (file.length() < MAP_THRESHOLD) {
+            CsvReader reader = new CsvReader(file);
+            try {
+                return parse(reader, skipHeader, mapper);
+            } finally {
+                reader.close();
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = skipHeader ? nextLineStart(channel, 1) : 0; // first line after the header
+            long[] bounds = chunkBounds(channel, start, size);
+
+            try {
+                List<List<T>> chunks = IntStream.range(0, bounds.length - 1)
+                        .parallel()
+                        .mapToObj(i -> parseChunk(channel, bounds[i], bounds[i + 1], !replacedLater, mapper))
+                        .collect(Collectors.toList());
+
+                ArrayList<T> rows = new ArrayList<>();
+                for (List<T> chunk : chunks) {
+                    rows.addAll(chunk);
+                }
+                return rows;
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    // Parses the rows of one [start, end) region, mapped or read through the channel
+    private static <T> List<T> parseChunk(FileChannel channel, long start, long end, boolean map, RowMapper<T> mapper) {
+        try {
+            if (!map) {
+                return parse(new CsvReader(channel, start, end), false, mapper);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            return parse(new CsvReader(buffer), false, mapper);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static <T> List<T> parse(CsvReader reader, boolean skipHeader, RowMapper<T> mapper) throws IOException {
+        ArrayList<T> rows = new ArrayList<>();
+        if (skipHeader) {
+            reader.next();
+        }
+        while (reader.next()) {
+            T value = mapper.map(reader);
+            if (value != null) {
+                rows.add(value);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Splits [start, size) into chunks that each begin at the start of a line
+     *
+     * @return chunk boundaries, first is start and last is size
+     */
+    private static long[] chunkBounds(FileChannel channel, long start, long size) throws IOException {
+        long length = size - start;
+        int chunks = 1;
+        if (length >= PARALLEL_THRESHOLD) {
+            chunks = (int) Math.max(Runtime.getRuntime().availableProcessors(), (length + MAX_CHUNK - 1) / MAX_CHUNK);
+        }
+        ArrayList<Long> bounds = new ArrayList<>();
+        bounds.add(start);
+        for (int i = 1; i < chunks; i++) {
+            long bound = nextLineStart(channel, start + length * i / chunks);
+            if (bound > bounds.get(bounds.size() - 1) && bound < size) {
+                bounds.add(bound);
+            }
+        }
+        bounds.add(size);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the offset of the first line that starts at or after position
+     *
+     * @return line start offset, or the file size if there is none
+     */
+    private static long nextLineStart(FileChannel channel, long position) throws IOException {
+        if (position == 0) {
+            return position;
+        }
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long pos = position - 1; // a line starts at position if the byte before it is a newline
+        while (true) {
+            probe.clear();
+            int read = channel.read(probe, pos);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += read;
+        }
+    }
+}
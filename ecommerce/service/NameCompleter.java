@@ -0,0 +1,236 @@
+package ecommerce.service;
+
+import ecommerce.model.Product;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * NameCompleter answers "which product names start with this prefix" for
+ * autocomplete. Names are kept in one sorted array, so the names sharing a
+ * prefix form a contiguous range found with two binary searches.
+ *
+ * Inside that range the most popular names are picked with a segment tree
+ * that stores, for each block of the array, the position of its most
+ * popular name. Taking the best name of a range and splitting the range
+ * around it gives the top k in O(k log n), however many names share the
+ * prefix.
+ *
+ * A completer is never changed once built, so any number of threads can
+ * read it without locking. New sales produce an updated copy.
+ */
+class NameCompleter {
+
+    // Lower-cased names in sorted order, with the original spelling and product ID alongside
+    private final String[] keys;
+    private final String[] names;
+    private final int[] ids;
+
+    // Popularity (units ordered) of the name at each position
+    private final int[] popularity;
+
+    // product ID --> position in the arrays
+    private final HashMap<Integer, Integer> positions;
+
+    // Segment tree over positions, each node holds the position of its most popular name
+    private final int leaves;
+    private final int[] tree;
+
+    /**
+     * Builds the completer for a catalog
+     *
+     * @param products every product in the catalog
+     * @param unitsOrdered product ID --> units ordered so far
+     */
+    NameCompleter(List<Product> products, Map<Integer, Integer> unitsOrdered) {
+        int n = products.size();
+        Integer[] order = new Integer[n];
+        String[] lower = new String[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            lower[i] = products.get(i).getName().toLowerCase(Locale.ROOT);
+        }
+        Arrays.sort(order, (a, b) -> lower[a].compareTo(lower[b]));
+
+        keys = new String[n];
+        names = new String[n];
+        ids = new int[n];
+        popularity = new int[n];
+        positions = new HashMap<>(n * 2);
+        for (int pos = 0; pos < n; pos++) {
+            Product product = products.get(order[pos]);
+            keys[pos] = lower[order[pos]];
+            names[pos] = product.getName();
+            ids[pos] = Integer.parseInt(product.getId());
+            popularity[pos] = unitsOrdered.getOrDefault(ids[pos], 0);
+            positions.put(ids[pos], pos);
+        }
+
+        int size = 1;
+        while (size < n) {
+            size *= 2;
+        }
+        leaves = size;
+        tree = new int[2 * size];
+        Arrays.fill(tree, -1);
+        for (int pos = 0; pos < n; pos++) {
+            tree[size + pos] = pos;
+        }
+        for (int node = size - 1; node >= 1; node--) {
+            tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    // Copy sharing the name arrays, with its own popularity and tree to update
+    private NameCompleter(NameCompleter other) {
+        keys = other.keys;
+        names = other.names;
+        ids = other.ids;
+        positions = other.positions;
+        leaves = other.leaves;
+        popularity = other.popularity.clone();
+        tree = other.tree.clone();
+    }
+
+    /**
+     * Returns a completer with more units ordered for some products, e.g.
+     * after checkouts. This completer is left unchanged, so threads still
+     * reading it are never disturbed; only the popularity arrays are copied
+     *
+     * @param unitsAdded product ID --> units ordered
+     * @return the updated completer
+     */
+    NameCompleter withPopularity(Map<Integer, Integer> unitsAdded) {
+        NameCompleter copy = new NameCompleter(this);
+        for (Map.Entry<Integer, Integer> units : unitsAdded.entrySet()) {
+            copy.addPopularity(units.getKey(), units.getValue());
+        }
+        return copy;
+    }
+
+    // Adds to a product's popularity, only used on a fresh copy
+    private void addPopularity(int productId, int units) {
+        Integer pos = positions.get(productId);
+        if (pos == null) {
+            return;
+        }
+        popularity[pos] += units;
+        for (int node = (leaves + pos) / 2; node >= 1; node /= 2) {
+            tree[node] = better(tree[2 * node], tree[2 * node + 1]);
+        }
+    }
+
+    /**
+     * Returns the most popular distinct names starting with a prefix
+     * (case-insensitive). Equally popular names come in alphabetical order
+     *
+     * @param prefix typed text
+     * @param k maximum number of names
+     * @return up to k product names, most popular first
+     */
+    List<String> complete(String prefix, int k) {
+        ArrayList<String> result = new ArrayList<>();
+        String p = prefix.toLowerCase(Locale.ROOT);
+        if (p.isEmpty() || k <= 0) {
+            return result;
+        }
+        int from = lowerBound(p);
+        int to = prefixEnd(p, from);
+
+        // Ranges [left, right] waiting to give up their best name, best range first
+        PriorityQueue<int[]> ranges = new PriorityQueue<>((a, b) -> compare(a[2], b[2]));
+        if (from < to) {
+            ranges.add(new int[]{from, to - 1, bestIn(from, to - 1)});
+        }
+        while (!ranges.isEmpty() && result.size() < k) {
+            int[] range = ranges.poll();
+            int best = range[2];
+            if (!containsIgnoreCase(result, names[best])) {
+                result.add(names[best]); // products sharing a name are suggested once
+            }
+            if (range[0] < best) {
+                ranges.add(new int[]{range[0], best - 1, bestIn(range[0], best - 1)});
+            }
+            if (best < range[1]) {
+                ranges.add(new int[]{best + 1, range[1], bestIn(best + 1, range[1])});
+            }
+        }
+        return result;
+    }
+
+    // First position whose key is >= p
+    private int lowerBound(String p) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(p) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // First position at or after from whose key does not start with p
+    private int prefixEnd(String p, int from) {
+        int low = from;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].startsWith(p)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Position of the most popular name in [left, right]
+    private int bestIn(int left, int right) {
+        int best = -1;
+        for (int l = left + leaves, r = right + leaves + 1; l < r; l /= 2, r /= 2) {
+            if ((l & 1) == 1) {
+                best = better(best, tree[l++]);
+            }
+            if ((r & 1) == 1) {
+                best = better(best, tree[--r]);
+            }
+        }
+        return best;
+    }
+
+    // The more popular of two positions (-1 means none)
+    private int better(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        if (b < 0) {
+            return a;
+        }
+        return compare(a, b) <= 0 ? a : b;
+    }
+
+    // Orders positions by popularity (highest first), then alphabetically
+    private int compare(int a, int b) {
+        if (popularity[a] != popularity[b]) {
+            return Integer.compare(popularity[b], popularity[a]);
+        }
+        return Integer.compare(a, b);
+    }
+
+    private static boolean containsIgnoreCase(List<String> list, String name) {
+        for (String s : list) {
+            if (s.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
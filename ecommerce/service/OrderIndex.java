@@ -0,0 +1,188 @@
+package ecommerce.service;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * OrderIndex maps each order ID to the byte offset of its row in
+ * `orders.csv`, so an order is read with one seek instead of a scan of the
+ * whole order history. The index is kept in memory and persisted in a
+ * sidecar CSV (`orders.idx`) that new orders are appended to.
+ *
+ * The sidecar is only a cache. On open it is checked against `orders.csv`:
+ * rows appended since it was last written are indexed, and if it does not
+ * match the file at all it is rebuilt with one scan. Lookups confirm the
+ * order ID at the offset before trusting it.
+ */
+class OrderIndex {
+
+    private final File ordersFile;
+    private final File indexFile;
+
+    // order ID --> byte offset of its row in orders.csv (first row wins on duplicate IDs)
+    private final HashMap<String, Long> offsets = new HashMap<>();
+
+    // Offset of the last indexed row, -1 when nothing is indexed
+    private long lastOffset = -1;
+    private String lastOrderId;
+
+    private OrderIndex(File ordersFile, File indexFile) {
+        this.ordersFile = ordersFile;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Loads the index for an orders file, catching up with or rebuilding it
+     * if the sidecar is behind or does not match
+     *
+     * @param ordersFile orders CSV
+     * @param indexFile sidecar index file
+     * @return the loaded index
+     * @throws IOException if a file cannot be read or written
+     */
+    static OrderIndex open(File ordersFile, File indexFile) throws IOException {
+        OrderIndex index = new OrderIndex(ordersFile, indexFile);
+        if (!indexFile.exists() || !ordersFile.exists()) {
+            index.rebuild();
+            return index;
+        }
+        CsvReader reader = new CsvReader(indexFile);
+        try {
+            reader.next(); // skip header
+            while (reader.next()) {
+                index.put(reader.field(0), Long.parseLong(reader.field(1)));
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            index.rebuild(); // damaged sidecar
+            return index;
+        } finally {
+            reader.close();
+        }
+        if (index.lastOffset < 0 || !index.rowMatches(index.lastOrderId, index.lastOffset)) {
+            index.rebuild();
+        } else {
+            index.catchUp();
+        }
+        return index;
+    }
+
+    /**
+     * Returns the offset of an order's row, rebuilding the index once if the
+     * stored offset no longer points at that order
+     *
+     * @param orderId order ID
+     * @return byte offset of the row, or -1 if there is no such order
+     * @throws IOException if a file cannot be read
+     */
+    long locate(String orderId) throws IOException {
+        Long offset = offsets.get(orderId);
+        if (offset != null && rowMatches(orderId, offset)) {
+            return offset;
+        }
+        if (offset != null) {
+            rebuild(); // orders.csv was changed behind our back
+            offset = offsets.get(orderId);
+        }
+        return offset == null ? -1 : offset;
+    }
+
+    /**
+     * Records a batch of rows just appended to orders.csv, with one append
+     * to the sidecar
+     *
+     * @param rows order ID --> byte offset where its row starts, in file order
+     * @throws IOException if the sidecar cannot be written
+     */
+    void addAll(Map<String, Long> rows) throws IOException {
+        StringBuilder records = new StringBuilder();
+        for (Map.Entry<String, Long> row : rows.entrySet()) {
+            if (put(row.getKey(), row.getValue())) {
+                records.append("\n").append(row.getKey()).append(",").append(row.getValue());
+            }
+        }
+        if (records.length() > 0) {
+            try (FileWriter writer = new FileWriter(indexFile, true)) {
+                writer.write(records.toString());
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the index with one scan of orders.csv and rewrites the sidecar
+     *
+     * @throws IOException if a file cannot be read or written
+     */
+    void rebuild() throws IOException {
+        offsets.clear();
+        lastOffset = -1;
+        lastOrderId = null;
+        if (ordersFile.exists()) {
+            CsvReader reader = new CsvReader(ordersFile);
+            try {
+                reader.next(); // skip header
+                while (reader.next()) {
+                    put(reader.field(0), reader.rowOffset());
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        save();
+    }
+
+    // Indexes rows appended to orders.csv after the last indexed row
+    private void catchUp() throws IOException {
+        CsvReader reader = new CsvReader(ordersFile, lastOffset);
+        try {
+            reader.next(); // last indexed row
+            LinkedHashMap<String, Long> rows = new LinkedHashMap<>();
+            while (reader.next()) {
+                rows.putIfAbsent(reader.field(0), reader.rowOffset());
+            }
+            addAll(rows);
+        } finally {
+            reader.close();
+        }
+    }
+
+    // Adds an entry in memory, false if the order ID is already indexed
+    private boolean put(String orderId, long offset) {
+        if (offset > lastOffset) {
+            lastOffset = offset;
+            lastOrderId = orderId;
+        }
+        return offsets.putIfAbsent(orderId, offset) == null;
+    }
+
+    // Checks that the row at an offset belongs to the order
+    private boolean rowMatches(String orderId, long offset) throws IOException {
+        if (offset >= ordersFile.length()) {
+            return false;
+        }
+        CsvReader reader = new CsvReader(ordersFile, offset);
+        try {
+            return reader.next() && reader.rowOffset() == offset && reader.fieldEquals(0, orderId);
+        } finally {
+            reader.close();
+        }
+    }
+
+    // Writes the whole sidecar to a temporary file and swaps it in
+    private void save() throws IOException {
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        StringBuilder rows = new StringBuilder("order id, offset");
+        for (Map.Entry<String, Long> entry : offsets.entrySet()) {
+            rows.append("\n").append(entry.getKey()).append(",").append(entry.getValue());
+        }
+        try (FileWriter writer = new FileWriter(tempFile)) {
+            writer.write(rows.toString());
+        }
+        Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -8,23 +8,113 @@ package ecommerce.service;
  */
 import ecommerce.model.Order;
 import ecommerce.model.OrderStatus;
+import ecommerce.model.Product;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
-import java.util.Scanner;
+import java.util.Set;
 import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 
 public class OrderService {
 
+    /**
+     * When new orders are forced to disk. EVERY_COMMIT fsyncs `orders.csv`
+     * and `orderProducts.csv` once per group commit, so a completed
+     * processOrder survives a power loss. NEVER leaves flushing to the OS,
+     * which is faster but only survives an application crash
+     */
+    public enum FsyncPolicy {
+        NEVER, EVERY_COMMIT
+    }
+
     /**
      * In-memory queue for staged processing of orders. Populated from
      * `orders.csv` by {@link #fillQueue()} so processing can resume after a
-     * restart
+     * restart. Orders are added from the order writer thread too
      */
-    public static Queue<Order> orderQueue = new LinkedList<>();
+    public static Queue<Order> orderQueue = new ConcurrentLinkedQueue<>();
+
+    // Group commit settings, see configureOrderWriter()
+    private static volatile long flushIntervalMillis = 2;
+    private static volatile FsyncPolicy fsyncPolicy = FsyncPolicy.EVERY_COMMIT;
+
+    // Batches new orders from concurrent checkouts, started on first use
+    private static GroupCommitWriter<Order> orderWriter;
+
+    // Write-ahead log for placeOrder(), opened on first use
+    private static CheckoutLog checkoutLog;
+
+    // Times placeOrder() tries to save an accepted order before leaving it to retryStalledCheckouts()
+    private static final int ORDER_WRITE_ATTEMPTS = 3;
+
+    // Accepted checkouts (stock taken) whose order rows could not be written yet
+    private static final Queue<StalledCheckout> stalledCheckouts = new ConcurrentLinkedQueue<>();
+
+    // Append channels kept open between group commits (guarded by ORDERS_LOCK)
+    private static FileChannel ordersChannel;
+    private static FileChannel orderProductsChannel;
+
+    /**
+     * Width of the status column in `orders.csv`. Statuses are written padded
+     * with spaces to this width (CsvReader trims them), so a status change
+     * overwrites the field in place instead of rewriting the file
+     */
+    private static final int STATUS_WIDTH = statusWidth();
+
+    // Serializes writes to `orders.csv` and its index across every OrderService
+    private static final Object ORDERS_LOCK = new Object();
+
+    // order ID --> row offset in `orders.csv`, loaded on first use and shared
+    // by every OrderService (guarded by ORDERS_LOCK)
+    private static OrderIndex orderIndex;
+
+    // Longest status name
+    private static int statusWidth() {
+        int width = 0;
+        for (OrderStatus status : OrderStatus.values()) {
+            width = Math.max(width, status.name().length());
+        }
+        return width;
+    }
+
+    // Status name padded with spaces to width
+    private static String statusField(OrderStatus status, int width) {
+        StringBuilder field = new StringBuilder(status.name());
+        while (field.length() < width) {
+            field.append(' ');
+        }
+        return field.toString();
+    }
+
+    /**
+     * Returns the shared order index, loading it on first use. Caller holds
+     * ORDERS_LOCK
+     */
+    private static OrderIndex orderIndex() throws IOException {
+        if (orderIndex == null) {
+            orderIndex = OrderIndex.open(new File("ecommerce/data/orders.csv"), new File("ecommerce/data/orders.idx"));
+        }
+        return orderIndex;
+    }
 
     public String generateOrderId() {
         /**
@@ -37,130 +127,476 @@ public class OrderService {
      * Return a listing of orders for `username` by reading `orders.csv` and
      * `orderProducts.csv`
      *
-     * Assumes CSV columns: orderId,customerId,total,createdAt,status This
-     * method is simple and not optimized for large files
+     * Assumes CSV columns: orderId,customerId,total,createdAt,status. Each
+     * file is read once: the user's orders are collected first, then their
+     * items are gathered in one pass over `orderProducts.csv` and joined by
+     * order ID
      */
     public String getOrdersByUsername(String username, ProductService productService) throws IOException {
-        Scanner orderScanner = new Scanner(new File("ecommerce/data/orders.csv"));
-        Scanner orderProductScanner = null;
+        // Pass 1: the user's order rows, in file order
+        ArrayList<String[]> userOrders = new ArrayList<>();
+        HashSet<String> orderIds = new HashSet<>();
+        CsvReader orderReader = new CsvReader(new File("ecommerce/data/orders.csv"));
+        orderReader.next(); // skip header
+        while (orderReader.next()) {
+            if (orderReader.fieldEquals(1, username)) {
+                String[] order = {orderReader.field(0), orderReader.field(2), orderReader.field(3), orderReader.field(4)};
+                userOrders.add(order);
+                orderIds.add(order[0]);
+            }
+        }
+        orderReader.close();
+
+        // Pass 2: items of those orders only
+        Map<String, List<String[]>> itemsByOrder = loadOrderItems(orderIds);
+
         StringBuilder ordersDisplay = new StringBuilder();
-        orderScanner.nextLine(); // skip header
-        while (orderScanner.hasNextLine()) {
-            String orderLine = orderScanner.nextLine();
-            String[] orderParts = orderLine.split(",");
-            String orderId = orderParts[0];
-            String customerId = orderParts[1];
-            if (customerId.equals(username)) {
-                ordersDisplay.append("Order ID: ").append(orderId).append("\n");
-                ordersDisplay.append("Total: $").append(orderParts[2]).append("\n");
-                ordersDisplay.append("Date: ").append(orderParts[3]).append("\n");
-                ordersDisplay.append("Items:\n");
-
-                // Find items for this order (scan `orderProducts.csv`).
-                // Format: orderId, productId1, qty1, productId2, qty2, ...
-                orderProductScanner = new Scanner(new File("ecommerce/data/orderProducts.csv"));
-                orderProductScanner.nextLine(); // skip header
-                while (orderProductScanner.hasNextLine()) {
-                    String itemLine = orderProductScanner.nextLine();
-                    String[] itemParts = itemLine.split(",");
-                    if (itemParts[0].equals(orderId)) {
-                        for (int i = 1; i < itemParts.length; i += 2) {
-                            ordersDisplay.append(" - Product Name: ").append(productService
-                                    .getProductByID(Integer.parseInt(itemParts[i])).getName())
-                                    .append(", Quantity: ").append(itemParts[i + 1]).append("\n");
-                        }
-                    }
-                }
-                ordersDisplay.append("Status: ").append(orderParts[4]).append("\n");
-                ordersDisplay.append("----------------------------------------\n");
-                orderProductScanner.close();
+        for (String[] order : userOrders) {
+            ordersDisplay.append("Order ID: ").append(order[0]).append("\n");
+            ordersDisplay.append("Total: $").append(order[1]).append("\n");
+            ordersDisplay.append("Date: ").append(order[2]).append("\n");
+            ordersDisplay.append("Items:\n");
+            for (String[] item : itemsByOrder.getOrDefault(order[0], Collections.emptyList())) {
+                Product product = productService.getProductByID(Integer.parseInt(item[0]));
+                ordersDisplay.append(" - Product Name: ")
+                        .append(product != null ? product.getName() : "Product ID " + item[0]) // product may have been deleted
+                        .append(", Quantity: ").append(item[1]).append("\n");
             }
+            ordersDisplay.append("Status: ").append(order[3]).append("\n");
+            ordersDisplay.append("----------------------------------------\n");
         }
-        orderScanner.close();
         return ordersDisplay.toString();
     }
 
+    /**
+     * Reads `orderProducts.csv` once and groups the item pairs by order ID.
+     * Format: orderId, productId1, qty1, productId2, qty2, ...
+     *
+     * @param orderIds orders to keep, or null to keep every order
+     * @return order ID --> {productId, quantity} pairs in file order
+     * @throws IOException
+     */
+    private static Map<String, List<String[]>> loadOrderItems(Set<String> orderIds) throws IOException {
+        HashMap<String, List<String[]>> itemsByOrder = new HashMap<>();
+        if (orderIds != null && orderIds.isEmpty()) {
+            return itemsByOrder;
+        }
+        CsvReader orderProductReader = new CsvReader(new File("ecommerce/data/orderProducts.csv"));
+        orderProductReader.next(); // skip header
+        while (orderProductReader.next()) {
+            String orderId = orderProductReader.field(0);
+            if (orderIds != null && !orderIds.contains(orderId)) {
+                continue;
+            }
+            List<String[]> items = itemsByOrder.computeIfAbsent(orderId, k -> new ArrayList<>());
+            for (int i = 1; i + 1 < orderProductReader.fieldCount(); i += 2) {
+                items.add(new String[]{orderProductReader.field(i), orderProductReader.field(i + 1)});
+            }
+        }
+        orderProductReader.close();
+        return itemsByOrder;
+    }
+
     /**
      * Return all order IDs found in `orders.csv`.
      */
     public ArrayList<String> getAllOrderIds() throws IOException {
-        Scanner orderScanner = new Scanner(new File("ecommerce/data/orders.csv"));
-        orderScanner.nextLine(); // skip header
+        CsvReader orderReader = new CsvReader(new File("ecommerce/data/orders.csv"));
+        orderReader.next(); // skip header
         ArrayList<String> ids = new ArrayList<>();
-        while (orderScanner.hasNextLine()) {
-            String orderLine = orderScanner.nextLine();
-            String[] orderParts = orderLine.split(",");
-            ids.add(orderParts[0]);
+        while (orderReader.next()) {
+            ids.add(orderReader.field(0));
         }
-        orderScanner.close();
+        orderReader.close();
         return ids;
     }
 
     /**
-     * Produce a readable dump of all orders. Re-scans `orderProducts.csv`
+     * Produce a readable dump of all orders. `orderProducts.csv` is read
+     * once into a map keyed by order ID, then joined while streaming
+     * `orders.csv`
      */
     public String getAllOrders() throws IOException {
-        Scanner orderScanner = new Scanner(new File("ecommerce/data/orders.csv"));
-        Scanner orderProductScanner = null;
+        Map<String, List<String[]>> itemsByOrder = loadOrderItems(null);
+        CsvReader orderReader = new CsvReader(new File("ecommerce/data/orders.csv"));
         StringBuilder ordersDisplay = new StringBuilder();
-        orderScanner.nextLine(); // skip header
-        while (orderScanner.hasNextLine()) {
-            String orderLine = orderScanner.nextLine();
-            String[] orderParts = orderLine.split(",");
-            String orderId = orderParts[0];
+        orderReader.next(); // skip header
+        while (orderReader.next()) {
+            String orderId = orderReader.field(0);
             ordersDisplay.append("Order ID: ").append(orderId).append("\n");
-            ordersDisplay.append("Customer ID: ").append(orderParts[1]).append("\n");
-            ordersDisplay.append("Total: $").append(orderParts[2]).append("\n");
-            ordersDisplay.append("Date: ").append(orderParts[3]).append("\n");
+            ordersDisplay.append("Customer ID: ").append(orderReader.field(1)).append("\n");
+            ordersDisplay.append("Total: $").append(orderReader.field(2)).append("\n");
+            ordersDisplay.append("Date: ").append(orderReader.field(3)).append("\n");
             ordersDisplay.append("Items:\n");
-            // Find items for this order
-            orderProductScanner = new Scanner(new File("ecommerce/data/orderProducts.csv"));
-            orderProductScanner.nextLine(); // skip header
-            while (orderProductScanner.hasNextLine()) {
-                String itemLine = orderProductScanner.nextLine();
-                String[] itemParts = itemLine.split(",");
-                if (itemParts[0].equals(orderId)) {
-                    for (int i = 1; i < itemParts.length; i += 2) {
-                        ordersDisplay.append(" - Product ID: ").append(itemParts[i])
-                                .append(", Quantity: ").append(itemParts[i + 1]).append("\n");
-                    }
-                }
+            for (String[] item : itemsByOrder.getOrDefault(orderId, Collections.emptyList())) {
+                ordersDisplay.append(" - Product ID: ").append(item[0])
+                        .append(", Quantity: ").append(item[1]).append("\n");
             }
-            ordersDisplay.append("Status: ").append(orderParts[4]).append("\n");
+            ordersDisplay.append("Status: ").append(orderReader.field(4)).append("\n");
             ordersDisplay.append("----------------------------------------\n");
         }
-        orderScanner.close();
-        if (orderProductScanner != null) {
-            orderProductScanner.close();
-        }
+        orderReader.close();
         return ordersDisplay.toString();
     }
 
+    /**
+     * Sets how new orders are group committed. Applies to every
+     * OrderService, including orders already waiting for a commit
+     *
+     * @param flushInterval how long a commit waits for more orders after the
+     * first one, in milliseconds (0 writes whatever is queued right away)
+     * @param policy when the order files are forced to disk
+     */
+    public static synchronized void configureOrderWriter(long flushInterval, FsyncPolicy policy) {
+        flushIntervalMillis = Math.max(0, flushInterval);
+        fsyncPolicy = policy;
+        if (orderWriter != null) {
+            orderWriter.setFlushInterval(flushIntervalMillis);
+        }
+    }
+
+    // Returns the shared order writer, starting it on first use
+    private static synchronized GroupCommitWriter<Order> orderWriter() {
+        if (orderWriter == null) {
+            orderWriter = new GroupCommitWriter<>("order-writer", OrderService::writeOrders, flushIntervalMillis);
+        }
+        return orderWriter;
+    }
+
     public void processOrder(Order order) throws IOException {
         /**
          * Persist the order to disk (append to CSVs) and enqueue it for staged
-         * processing. Uses simple append semantics; there is no concurrency
-         * control in this demo code
+         * processing. Waits until the group commit holding the order is
+         * written
          */
-        FileWriter orderWriter = new FileWriter("ecommerce/data/orders.csv", true);
-        FileWriter orderProductsWriter = new FileWriter("ecommerce/data/orderProducts.csv", true);
-        orderWriter.append("\n").append(order.getOrderId()).append(",")
-                .append(order.getCustomerId()).append(",")
-                .append(String.format("%.2f", order.getTotal())).append(",")
-                .append(order.getCreatedAt()).append(",")
-                .append(order.getStatus().toString());
-        orderWriter.flush();
-        orderWriter.close();
+        try {
+            processOrderAsync(order).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while saving order " + order.getOrderId());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Could not save order " + order.getOrderId(), e.getCause());
+        }
+    }
+
+    /**
+     * Queues an order for the next group commit and returns right away.
+     * Concurrent checkouts share one write (and one fsync) per commit
+     *
+     * @param order order to persist
+     * @return future completed once the order is written (and synced, per
+     * the fsync policy) and added to the processing queue
+     */
+    public CompletableFuture<Void> processOrderAsync(Order order) {
+        return orderWriter().submit(order).thenRun(() -> orderQueue.add(order)); // add to processing queue
+    }
+
+    /**
+     * Checks out an order as one transaction: the stock decrement for the
+     * reservation and both order rows are logged (and synced) up front,
+     * then applied. If the stock cannot be written nothing happens and the
+     * exception is thrown. Once the stock is taken the checkout is accepted:
+     * saving the order is retried a few times, and if it still fails the
+     * checkout is left pending for retryStalledCheckouts() (or for
+     * recoverCheckouts() on the next start) instead of failing
+     *
+     * @param order order to place
+     * @param reservation stock reserved for the order's items
+     * @param productService catalog to take the stock from
+     * @return true if the order is saved, false if it was accepted but is
+     * still pending
+     * @throws IOException if the stock could not be taken, nothing was
+     * checked out
+     */
+    public boolean placeOrder(Order order, StockReservation reservation, ProductService productService) throws IOException {
+        Map<Integer, Integer> deltas = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Integer> line : reservation.getQuantities().entrySet()) {
+            deltas.put(line.getKey(), -line.getValue());
+        }
+        CheckoutLog log = checkoutLog();
+        String orderRow = orderRow(order);
+        String itemsRow = itemsRow(order);
+        long tx;
+        try {
+            tx = log.begin(order.getOrderId(), deltas, orderRow, itemsRow);
+        } catch (IOException | RuntimeException e) {
+            productService.releaseReservation(reservation); // nothing was logged, give the units back
+            throw e;
+        }
+        boolean marked;
+        try {
+            marked = productService.commitCheckout(reservation, tx, log); // releases the reservation if it fails
+        } catch (IOException | RuntimeException e) {
+            try {
+                log.rollBack(tx);
+            } catch (IOException | RuntimeException rollBackFailure) {
+                e.addSuppressed(rollBackFailure); // recovery rolls it back on the next start
+            }
+            throw e;
+        }
+
+        // The stock is gone, so from here on the order must end up saved
+        StalledCheckout checkout = new StalledCheckout(tx, order, orderRow, itemsRow, marked);
+        for (int attempt = 1; attempt <= ORDER_WRITE_ATTEMPTS; attempt++) {
+            try {
+                if (attempt == 1 && marked) {
+                    processOrder(order); // usual path, shares a group commit with other checkouts
+                    checkout.queued = true;
+                    log.commit(tx);
+                } else {
+                    finish(checkout, log); // skips rows an earlier attempt already wrote
+                }
+                return true;
+            } catch (IOException e) {
+                System.out.println("Could not save order " + order.getOrderId() + " (attempt " + attempt + "): " + e.getMessage());
+            }
+        }
+        stalledCheckouts.add(checkout);
+        return false;
+    }
+
+    /**
+     * Tries again to save the orders of accepted checkouts that placeOrder()
+     * could not save. Safe to call at any time, e.g. from a scheduler; each
+     * checkout is committed (and leaves the log) once its rows are written
+     */
+    public void retryStalledCheckouts() {
+        CheckoutLog log = checkoutLog();
+        for (int n = stalledCheckouts.size(); n > 0; n--) {
+            StalledCheckout checkout = stalledCheckouts.poll();
+            if (checkout == null) {
+                return;
+            }
+            try {
+                finish(checkout, log);
+                System.out.println("Saved pending order " + checkout.order.getOrderId());
+            } catch (IOException e) {
+                System.out.println("Order " + checkout.order.getOrderId() + " is still pending: " + e.getMessage());
+                stalledCheckouts.add(checkout);
+            }
+        }
+    }
+
+    // Returns the number of accepted checkouts whose orders are not saved yet
+    public int getPendingCheckoutCount() {
+        return stalledCheckouts.size();
+    }
+
+    // Writes an accepted checkout's marker and missing rows, queues the order and commits the checkout
+    private static void finish(StalledCheckout checkout, CheckoutLog log) throws IOException {
+        if (!checkout.marked) {
+            log.stockApplied(checkout.tx);
+            checkout.marked = true;
+        }
+        Map<String, String[]> rows = new HashMap<>();
+        rows.put(checkout.order.getOrderId(), new String[]{checkout.orderRow, checkout.itemsRow});
+        appendMissingRows(rows);
+        if (!checkout.queued) {
+            orderQueue.add(checkout.order);
+            checkout.queued = true;
+        }
+        log.commit(checkout.tx);
+    }
+
+    // An accepted checkout whose order still has to be saved
+    private static class StalledCheckout {
+
+        private final long tx;
+        private final Order order;
+        private final String orderRow;
+        private final String itemsRow;
+
+        // Whether the checkout's S marker is on disk, and whether the order is in orderQueue
+        private boolean marked;
+        private boolean queued;
+
+        StalledCheckout(long tx, Order order, String orderRow, String itemsRow, boolean marked) {
+            this.tx = tx;
+            this.order = order;
+            this.orderRow = orderRow;
+            this.itemsRow = itemsRow;
+            this.marked = marked;
+        }
+    }
+
+    /**
+     * Finishes checkouts interrupted by a crash or failed write. A checkout
+     * with an S marker, or whose tagged stock records show up in the product
+     * journal, took stock: any deltas missing from the journal are applied
+     * (tagged, so running this twice is harmless) and its missing
+     * `orders.csv` and `orderProducts.csv` rows are written. A checkout with
+     * neither took no stock and is rolled back. Call once at startup, after
+     * the catalog is loaded and before fillQueue()
+     *
+     * @param productService catalog the checkouts took stock from
+     * @throws IOException
+     */
+    public void recoverCheckouts(ProductService productService) throws IOException {
+        CheckoutLog log = checkoutLog();
+        List<CheckoutLog.Intent> unfinished = log.unfinished();
+        if (unfinished.isEmpty()) {
+            return;
+        }
+        Map<Long, Set<Integer>> journaled = productService.journaledCheckouts();
+
+        ArrayList<CheckoutLog.Intent> applied = new ArrayList<>();
+        for (CheckoutLog.Intent intent : unfinished) {
+            Set<Integer> tagged = journaled.getOrDefault(intent.getTx(), Collections.emptySet());
+            if (!intent.isStockApplied() && tagged.isEmpty()) {
+                log.rollBack(intent.getTx());
+                System.out.println("Rolled back checkout for order " + intent.getOrderId());
+                continue;
+            }
+            if (!intent.isStockApplied()) {
+                // Cut off while taking stock, apply whatever did not reach the journal
+                Map<Integer, Integer> missing = new LinkedHashMap<>(intent.getStockDeltas());
+                missing.keySet().removeAll(tagged);
+                if (!productService.recoverCheckoutStock(missing, intent.getTx(), log)) {
+                    throw new IOException("Could not mark the stock of order " + intent.getOrderId() + " as applied");
+                }
+            }
+            applied.add(intent);
+        }
+
+        Map<String, String[]> rows = new LinkedHashMap<>();
+        for (CheckoutLog.Intent intent : applied) {
+            rows.put(intent.getOrderId(), new String[]{intent.getOrderRow(), intent.getItemsRow()});
+        }
+        appendMissingRows(rows);
+        for (CheckoutLog.Intent intent : applied) {
+            log.commit(intent.getTx());
+            System.out.println("Recovered order " + intent.getOrderId());
+        }
+    }
+
+    /**
+     * Appends the order rows that are not in `orders.csv` and
+     * `orderProducts.csv` yet, so a write that failed halfway can be
+     * repeated without duplicating rows
+     *
+     * @param rows order ID --> {orders.csv row, orderProducts.csv row}
+     * @throws IOException
+     */
+    private static void appendMissingRows(Map<String, String[]> rows) throws IOException {
+        Map<String, List<String[]>> writtenItems = loadOrderItems(rows.keySet());
+        ArrayList<String> orderRows = new ArrayList<>();
+        ArrayList<String> itemRows = new ArrayList<>();
+        for (Map.Entry<String, String[]> order : rows.entrySet()) {
+            boolean headerWritten;
+            synchronized (ORDERS_LOCK) {
+                headerWritten = orderIndex().locate(order.getKey()) >= 0;
+            }
+            if (!headerWritten) {
+                orderRows.add(order.getValue()[0]);
+            }
+            if (!writtenItems.containsKey(order.getKey())) {
+                itemRows.add(order.getValue()[1]);
+            }
+        }
+        appendRows(orderRows, itemRows);
+    }
+
+    // Returns the shared checkout log, opening it on first use
+    private static synchronized CheckoutLog checkoutLog() {
+        if (checkoutLog == null) {
+            checkoutLog = new CheckoutLog(new File("ecommerce/data/checkout.wal"));
+        }
+        return checkoutLog;
+    }
+
+    /**
+     * Appends a batch of orders to `orders.csv` and `orderProducts.csv`. Runs
+     * on the order writer thread
+     *
+     * @param batch orders to write
+     * @throws IOException
+     */
+    private static void writeOrders(List<Order> batch) throws IOException {
+        ArrayList<String> orderRows = new ArrayList<>();
+        ArrayList<String> itemRows = new ArrayList<>();
+        for (Order order : batch) {
+            orderRows.add(orderRow(order));
+            itemRows.add(itemsRow(order));
+        }
+        appendRows(orderRows, itemRows);
+    }
+
+    // Formats an order as an `orders.csv` row
+    private static String orderRow(Order order) {
+        return order.getOrderId() + ","
+                + order.getCustomerId() + ","
+                + String.format("%.2f", order.getTotal()) + ","
+                + order.getCreatedAt() + ","
+                + statusField(order.getStatus(), STATUS_WIDTH);
+    }
+
+    // Formats an order's items as an `orderProducts.csv` row
+    private static String itemsRow(Order order) {
         StringJoiner joiner = new StringJoiner(",");
-        joiner.add("\n" + order.getOrderId());
+        joiner.add(order.getOrderId());
         for (var item : order.getItems()) {
             joiner.add(item.getProduct().getId())
                     .add(String.valueOf(item.getQuantity()));
         }
-        orderProductsWriter.append(joiner.toString());
-        orderProductsWriter.flush();
-        orderProductsWriter.close();
-        orderQueue.add(order); // add to processing queue
+        return joiner.toString();
+    }
+
+    /**
+     * Appends rows to `orders.csv` and `orderProducts.csv` with one write per
+     * file, syncs them if the policy says so and indexes the new order rows
+     *
+     * @param orderRows rows for `orders.csv`
+     * @param itemRows rows for `orderProducts.csv`
+     * @throws IOException
+     */
+    private static void appendRows(List<String> orderRows, List<String> itemRows) throws IOException {
+        synchronized (ORDERS_LOCK) {
+            if (ordersChannel == null) {
+                ordersChannel = FileChannel.open(new File("ecommerce/data/orders.csv").toPath(),
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                orderProductsChannel = FileChannel.open(new File("ecommerce/data/orderProducts.csv").toPath(),
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            long end = ordersChannel.size();
+            ByteArrayOutputStream orderBytes = new ByteArrayOutputStream();
+            ByteArrayOutputStream itemBytes = new ByteArrayOutputStream();
+            LinkedHashMap<String, Long> offsets = new LinkedHashMap<>();
+            for (String row : orderRows) {
+                // the row starts after its "\n" separator
+                offsets.putIfAbsent(row.substring(0, row.indexOf(',')), end + orderBytes.size() + 1);
+                orderBytes.writeBytes(("\n" + row).getBytes(StandardCharsets.UTF_8));
+            }
+            for (String row : itemRows) {
+                itemBytes.writeBytes(("\n" + row).getBytes(StandardCharsets.UTF_8));
+            }
+            writeFully(ordersChannel, orderBytes.toByteArray());
+            orderIndex().addAll(offsets); // index the rows right away, so a retry after a failure below finds them
+            writeFully(orderProductsChannel, itemBytes.toByteArray());
+            if (fsyncPolicy == FsyncPolicy.EVERY_COMMIT) {
+                ordersChannel.force(false);
+                orderProductsChannel.force(false);
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // Closes the append channels before orders.csv is replaced. Caller holds ORDERS_LOCK
+    private static void closeOrderChannels() throws IOException {
+        if (ordersChannel != null) {
+            ordersChannel.close();
+            orderProductsChannel.close();
+            ordersChannel = null;
+            orderProductsChannel = null;
+        }
     }
 
     public void processNextOrder() throws IOException {
@@ -197,49 +633,49 @@ public class OrderService {
          * Load non-DELIVERED orders from `orders.csv` into the in-memory queue
          * so processing can resume between runs
          */
-        Scanner orderScanner = new Scanner(new File("ecommerce/data/orders.csv"));
-        orderScanner.nextLine(); // skip header
-        while (orderScanner.hasNextLine()) {
-            String orderLine = orderScanner.nextLine();
-            String[] orderParts = orderLine.split(",");
-            OrderStatus status = OrderStatus.valueOf(orderParts[4]);
-            if (status != OrderStatus.DELIVERED) {
-                OrderService orderService = new OrderService();
-                Order order = orderService.createOrderFromFile(orderParts[0]);
-                if (order != null) {
-                    orderQueue.add(order);
-                }
-            }
-        }
-        orderScanner.close();
+        // Orders are built straight from each row (parsed in parallel for a
+        // large history) rather than looked up again by ID
+        List<Order> pending = MappedCsvLoader.load(new File("ecommerce/data/orders.csv"), true, true,
+                row -> row.fieldEquals(4, OrderStatus.DELIVERED.name()) ? null : orderFromRow(row));
+        orderQueue.addAll(pending);
+    }
+
+    /**
+     * Build an Order from the current `orders.csv` row. Items are omitted
+     * because callers only need id/status/total for queueing and status
+     * updates
+     */
+    private static Order orderFromRow(CsvReader orderReader) {
+        OrderStatus status = OrderStatus.valueOf(orderReader.field(4));
+        Order order = new Order(
+                orderReader.field(1), // customerId
+                new java.util.ArrayList<>(), // empty items; unnecessary for status updates
+                orderReader.doubleField(2) // total
+        );
+        order.setOrderId(orderReader.field(0));
+        order.setStatus(status);
+        return order;
     }
 
     public Order createOrderFromFile(String orderId) throws IOException {
         /**
          * Build a Order object from a CSV row. Items are omitted because
          * callers often only need id/status/total for queueing and status
-         * updates
+         * updates. The row is found through the order index, one seek
          */
-        Scanner orderScanner = new Scanner(new File("ecommerce/data/orders.csv"));
-        orderScanner.nextLine(); // skip header
-        while (orderScanner.hasNextLine()) {
-            String orderLine = orderScanner.nextLine();
-            String[] orderParts = orderLine.split(",");
-            if (orderParts[0].equals(orderId)) {
-                OrderStatus status = OrderStatus.valueOf(orderParts[4]);
-                Order order = new Order(
-                        orderParts[1], // customerId
-                        new java.util.ArrayList<>(), // empty items; unnecessary for status updates
-                        Double.parseDouble(orderParts[2]) // total
-                );
-                order.setOrderId(orderId);
-                order.setStatus(status);
-                orderScanner.close();
-                return order;
-            }
+        long offset;
+        synchronized (ORDERS_LOCK) {
+            offset = orderIndex().locate(orderId);
+        }
+        if (offset < 0) {
+            return null; // not found
+        }
+        CsvReader orderReader = new CsvReader(new File("ecommerce/data/orders.csv"), offset);
+        try {
+            return orderReader.next() && orderReader.fieldEquals(0, orderId) ? orderFromRow(orderReader) : null;
+        } finally {
+            orderReader.close();
         }
-        orderScanner.close();
-        return null; // not found
     }
 
     public void updateOrderStatus(String orderId, OrderStatus newStatus) throws IOException {
@@ -252,43 +688,82 @@ public class OrderService {
 
     public void updateOrderStatusInFile(Order order) throws IOException {
         /**
-         * update an order's status in `orders.csv` by writing a temporary file
-         * and replacing the original
+         * update an order's status in `orders.csv`. The row is found through
+         * the order index and the fixed-width status field is overwritten in
+         * place with one positional write. Rows written before statuses were
+         * padded may be too narrow for the new status; those are fixed by
+         * compacting the file once
          */
         File inputFile = new File("ecommerce/data/orders.csv");
+
+        synchronized (ORDERS_LOCK) {
+            long offset = orderIndex().locate(order.getOrderId());
+            if (offset < 0) {
+                System.out.println("Could not find order " + order.getOrderId());
+                return;
+            }
+
+            CsvReader reader = new CsvReader(inputFile, offset);
+            reader.next();
+            long statusOffset = reader.fieldOffset(4);
+            int space = reader.fieldSpace(4);
+            reader.close();
+
+            if (space < order.getStatus().name().length()) {
+                compactOrders(order); // legacy unpadded row
+                return;
+            }
+            byte[] status = statusField(order.getStatus(), space).getBytes(StandardCharsets.US_ASCII);
+            try (FileChannel channel = FileChannel.open(inputFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.wrap(status), statusOffset);
+            }
+        }
+    }
+
+    /**
+     * Rewrites `orders.csv` with every status padded to the fixed width,
+     * through a temporary file, and rebuilds the order index
+     *
+     * @throws IOException
+     */
+    public void compactOrders() throws IOException {
+        synchronized (ORDERS_LOCK) {
+            compactOrders(null);
+        }
+    }
+
+    /**
+     * Rewrites `orders.csv` with padded statuses, optionally changing the
+     * status of one order on the way. Caller holds ORDERS_LOCK
+     *
+     * @param changed order whose new status to write, or null
+     * @throws IOException
+     */
+    private void compactOrders(Order changed) throws IOException {
+        File inputFile = new File("ecommerce/data/orders.csv");
         File tempFile = new File("ecommerce/data/orders_temp.csv");
 
-        Scanner scanner = new Scanner(inputFile);
+        CsvReader reader = new CsvReader(inputFile);
         FileWriter writer = new FileWriter(tempFile);
 
-        String header = scanner.nextLine();
-        writer.write(header);
+        reader.next();
+        writer.write(reader.line()); // header
 
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-            String[] parts = line.split(",");
-            if (parts[0].equals(order.getOrderId())) {
-
-                // Replace status field for the matching order row.
-                parts[4] = order.getStatus().toString();
-                String updatedLine = String.join(",", parts);
-                writer.write("\n" + updatedLine);
-            } else {
-                writer.write("\n" + line);
-            }
+        while (reader.next()) {
+            OrderStatus status = changed != null && reader.fieldEquals(0, changed.getOrderId())
+                    ? changed.getStatus()
+                    : OrderStatus.valueOf(reader.field(4));
+            writer.write("\n" + reader.field(0) + "," + reader.field(1) + "," + reader.field(2) + ","
+                    + reader.field(3) + "," + statusField(status, STATUS_WIDTH));
         }
 
         writer.flush();
         writer.close();
-        scanner.close();
+        reader.close();
 
         // Replace original file with updated file
-        if (!inputFile.delete()) {
-            System.out.println("Could not delete original orders file");
-            return;
-        }
-        if (!tempFile.renameTo(inputFile)) {
-            System.out.println("Could not rename temp file to orders file");
-        }
+        closeOrderChannels(); // reopened on the new file by the next commit
+        Files.move(tempFile.toPath(), inputFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        orderIndex().rebuild(); // every row may have moved
     }
 }
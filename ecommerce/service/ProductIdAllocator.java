@@ -0,0 +1,104 @@
+package ecommerce.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ProductIdAllocator hands out product IDs without scanning the catalog. The
+ * highest ID ever handed out (the high-water mark) is kept in a small
+ * sidecar file next to `products.csv`.
+ *
+ * Every allocation locks that file, so two admin sessions (threads or
+ * separate processes) never get the same ID, bumps the mark and writes it
+ * back. Callers that add many products at once reserve a whole block of IDs
+ * with one allocation.
+ *
+ * IDs are never reused, even after the product holding the highest ID is
+ * deleted.
+ */
+class ProductIdAllocator {
+
+    private final File sequenceFile;
+
+    // Highest product ID this process has seen in the catalog or handed out
+    private final AtomicInteger highestSeen = new AtomicInteger(0);
+
+    ProductIdAllocator(File sequenceFile) {
+        this.sequenceFile = sequenceFile;
+    }
+
+    /**
+     * Records an ID that exists in the catalog, so it is never handed out
+     * even if the sidecar file is missing or older than the catalog
+     *
+     * @param id existing product ID
+     */
+    void observe(int id) {
+        highestSeen.accumulateAndGet(id, Math::max);
+    }
+
+    /**
+     * Allocates one new product ID
+     *
+     * @return the ID
+     * @throws IOException if the sidecar file cannot be updated
+     */
+    int next() throws IOException {
+        return reserveBlock(1);
+    }
+
+    /**
+     * Allocates a block of consecutive product IDs
+     *
+     * @param count number of IDs wanted, must be positive
+     * @return the first ID of the block, the block is [first, first + count)
+     * @throws IOException if the sidecar file cannot be updated
+     */
+    synchronized int reserveBlock(int count) throws IOException {
+        if (count < 1) {
+            throw new IllegalArgumentException("Block size must be greater than zero");
+        }
+        try (FileChannel channel = FileChannel.open(sequenceFile.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            FileLock lock = channel.lock();
+            try {
+                int highest = Math.max(readMark(channel), highestSeen.get());
+                int first = Math.addExact(highest, 1);
+                int last = Math.addExact(highest, count);
+
+                // Persist the new mark before handing the IDs out. It is written over
+                // the old one and only then trimmed, so a crash never leaves the file empty
+                ByteBuffer mark = ByteBuffer.wrap(String.valueOf(last).getBytes(StandardCharsets.US_ASCII));
+                int written = 0;
+                while (mark.hasRemaining()) {
+                    written += channel.write(mark, written);
+                }
+                channel.truncate(written);
+                channel.force(false);
+
+                observe(last);
+                return first;
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    // Reads the stored high-water mark, 0 if the file is empty or unreadable
+    private static int readMark(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        channel.read(buffer, 0);
+        String text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII).trim();
+        try {
+            return text.isEmpty() ? 0 : Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return 0; // damaged file, the catalog IDs observed at load still protect us
+        }
+    }
+}
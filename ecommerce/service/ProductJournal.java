@@ -0,0 +1,351 @@
+package ecommerce.service;
+
+import ecommerce.model.Product;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ProductJournal is an append-only change log that sits next to
+ * `products.csv`. Instead of rewriting the whole catalog for every edit,
+ * ProductService appends one record per change here and the products CSV is
+ * only rewritten when the journal is compacted.
+ *
+ * Record format (one per line): U,id,name,category,price,stock (add or
+ * update) and D,id (delete). Records are idempotent, so replaying a journal
+ * that was already folded into the snapshot is harmless. Stock updates made
+ * by a checkout carry the checkout's number (see {@link CheckoutLog}) as a
+ * 7th field, which replay ignores.
+ *
+ * Several processes may append to the same journal. Appends and rotation
+ * take a lock on `products.journal.lock`, and an appender whose open file
+ * was rotated away by someone else reopens the journal before writing, so
+ * no record ever lands in a journal that has already been folded.
+ */
+class ProductJournal {
+
+    // Active journal that new records are appended to
+    private final File journalFile;
+
+    // Journal that is being folded into a new snapshot by the compactor
+    private final File compactingFile;
+
+    // Serializes appends and rotation across threads and processes
+    private final CatalogLock lock;
+
+    // Writer kept open between appends, reopened after every rotation. Only
+    // touched while holding the lock
+    private FileOutputStream stream;
+    private Writer writer;
+
+    // File identity (inode) of the journal the writer has open
+    private Object writerFileKey;
+
+    // Approximate number of characters held in the active journal, written under the lock
+    private volatile long size;
+
+    ProductJournal(File journalFile) {
+        this.journalFile = journalFile;
+        this.compactingFile = new File(journalFile.getPath() + ".old");
+        this.lock = CatalogLock.forFile(new File(journalFile.getPath() + ".lock"));
+        this.size = journalFile.length();
+    }
+
+    /**
+     * Appends a batch of records and flushes them to disk in one write
+     *
+     * @param records one or more newline-terminated records
+     * @throws IOException
+     */
+    void append(String records) throws IOException {
+        append(records, false);
+    }
+
+    /**
+     * Appends a batch of records in one write, optionally syncing them
+     *
+     * @param records one or more newline-terminated records
+     * @param sync true to force the records to the storage device before
+     * returning, so they survive a power loss
+     * @throws IOException
+     */
+    void append(String records, boolean sync) throws IOException {
+        lock.lock();
+        try {
+            if (writer != null && !isOpenFile(journalFile)) {
+                closeWriter(); // another process rotated the journal, follow it to the new file
+            }
+            if (writer == null) {
+                boolean torn = endsMidRecord(journalFile);
+                stream = new FileOutputStream(journalFile, true);
+                writer = new OutputStreamWriter(stream);
+                writerFileKey = fileKey(journalFile);
+                if (torn) {
+                    writer.write("\n"); // keep new records off a half-written line
+                }
+            }
+            writer.write(records);
+            writer.flush();
+            if (sync) {
+                stream.getFD().sync();
+            }
+            size += records.length();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the approximate size (in characters) of the active journal
+    long size() {
+        return size;
+    }
+
+    /**
+     * Moves the active journal aside so it can be folded into a snapshot.
+     * Appends made after this call, by this or any other process, go to a
+     * fresh journal. If a previous compaction never finished, the active
+     * records are added to the journal that is already waiting instead
+     *
+     * @throws IOException
+     */
+    void rotate() throws IOException {
+        lock.lock();
+        try {
+            closeWriter();
+            if (journalFile.exists()) {
+                if (compactingFile.exists()) {
+                    Files.write(compactingFile.toPath(), Files.readAllBytes(journalFile.toPath()),
+                            StandardOpenOption.APPEND);
+                    Files.delete(journalFile.toPath());
+                } else if (!journalFile.renameTo(compactingFile)) {
+                    throw new IOException("Could not rotate product journal " + journalFile);
+                }
+            }
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards the rotated journal once its records are part of the snapshot
+     */
+    void finishCompaction() {
+        compactingFile.delete();
+    }
+
+    /**
+     * Discards every journal record. Used after the whole catalog, journal
+     * records included, has been written to the snapshot by other means.
+     * Callers that read the journal for that hold {@link #lock()} across the
+     * read and this call
+     *
+     * @throws IOException
+     */
+    void clear() throws IOException {
+        lock.lock();
+        try {
+            closeWriter();
+            journalFile.delete();
+            compactingFile.delete();
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the journal lock, so no thread or process appends or rotates
+     * until {@link #unlock()}. Reentrant
+     *
+     * @throws IOException
+     */
+    void lock() throws IOException {
+        lock.lock();
+    }
+
+    void unlock() throws IOException {
+        lock.unlock();
+    }
+
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            stream = null;
+            writerFileKey = null;
+        }
+    }
+
+    // Returns true if the path still names the file the writer has open
+    private boolean isOpenFile(File file) throws IOException {
+        Object key = fileKey(file);
+        return key != null && key.equals(writerFileKey);
+    }
+
+    // Returns the file's identity, null if it does not exist or the file system has none
+    private static Object fileKey(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * Receives the records of a journal replay, in the order they were
+     * written
+     */
+    interface Replay {
+
+        // Adds a product or replaces the product with the same ID
+        void upsert(Product product);
+
+        // Removes a product if it exists
+        void delete(int productId);
+    }
+
+    /**
+     * Replays the rotated journal and then the active journal on top of the
+     * products loaded from the snapshot
+     *
+     * @param products snapshot products keyed by ID, in file order
+     * @throws IOException
+     */
+    void replay(Map<Integer, Product> products) throws IOException {
+        replay(mapReplay(products));
+    }
+
+    // Replay target that applies the records to a map of products keyed by ID
+    private static Replay mapReplay(Map<Integer, Product> products) {
+        return new Replay() {
+            @Override
+            public void upsert(Product product) {
+                products.put(Integer.parseInt(product.getId()), product);
+            }
+
+            @Override
+            public void delete(int productId) {
+                products.remove(productId);
+            }
+        };
+    }
+
+    /**
+     * Replays the rotated journal and then the active journal into any
+     * product store
+     *
+     * @param target store the records are applied to
+     * @throws IOException
+     */
+    void replay(Replay target) throws IOException {
+        lock.lock();
+        try {
+            replayFile(compactingFile, target);
+            replayFile(journalFile, target);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replays only the rotated journal, the records a compaction folds into
+     * the new snapshot
+     *
+     * @param products snapshot products keyed by ID, in file order
+     * @throws IOException
+     */
+    void replayRotated(Map<Integer, Product> products) throws IOException {
+        replayFile(compactingFile, mapReplay(products));
+    }
+
+    private static void replayFile(File file, Replay target) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (CsvReader reader = new CsvReader(file)) {
+            while (reader.next()) {
+                if (!reader.terminated()) {
+                    break; // a last row without a newline was torn by a crash mid-append
+                }
+                if (reader.fieldEquals(0, "D") && reader.fieldCount() >= 2) {
+                    target.delete(reader.intField(1));
+                } else if (reader.fieldEquals(0, "U") && reader.fieldCount() >= 6) {
+                    target.upsert(new Product(reader.field(1), reader.field(2), reader.field(3),
+                            reader.doubleField(4), reader.intField(5)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the checkouts whose stock records are in the journal (rotated
+     * and active). Records of checkouts with a synced S marker may already
+     * have been compacted away, so only ask about checkouts without one
+     *
+     * @return checkout number --> IDs of the products it has records for
+     * @throws IOException
+     */
+    Map<Long, Set<Integer>> checkoutTags() throws IOException {
+        HashMap<Long, Set<Integer>> tags = new HashMap<>();
+        lock.lock();
+        try {
+            for (File file : new File[]{compactingFile, journalFile}) {
+                if (!file.exists()) {
+                    continue;
+                }
+                CsvReader reader = new CsvReader(file);
+                try {
+                    while (reader.next() && reader.terminated()) {
+                        if (reader.fieldEquals(0, "U") && reader.fieldCount() >= 7) {
+                            tags.computeIfAbsent(Long.parseLong(reader.field(6)), k -> new HashSet<>())
+                                    .add(reader.intField(1));
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return tags;
+    }
+
+    // Returns true if the file does not end on a record boundary
+    private static boolean endsMidRecord(File file) throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(raf.length() - 1);
+            return raf.read() != '\n';
+        }
+    }
+
+    // Builds an add/update record for a product
+    static String upsertRecord(Product product) {
+        return "U," + product.getId() + "," + product.getName() + "," + product.getCategory() + ","
+                + product.getPrice() + "," + product.getAvailableStock() + "\n";
+    }
+
+    // Builds a stock update record written by a checkout, tagged with its number
+    static String upsertRecord(Product product, long tx) {
+        return "U," + product.getId() + "," + product.getName() + "," + product.getCategory() + ","
+                + product.getPrice() + "," + product.getAvailableStock() + "," + tx + "\n";
+    }
+
+    // Builds a delete record for a product ID
+    static String deleteRecord(int productId) {
+        return "D," + productId + "\n";
+    }
+}
@@ -0,0 +1,86 @@
+package ecommerce.service;
+
+import ecommerce.model.StockState;
+
+/**
+ * ProductQuery describes a combined product filter for
+ * {@link ProductService#findProducts(ProductQuery)}. Every condition is
+ * optional; a product must match all the conditions that are set.
+ *
+ * Example: new ProductQuery().category("Electronics").priceBetween(10, 100)
+ * .stockState(StockState.IN_STOCK).nameContains("mouse")
+ */
+public class ProductQuery {
+
+    private String category;
+    private Double minPrice;
+    private Double maxPrice;
+    private StockState stockState;
+    private String nameContains;
+
+    /**
+     * Only products in this category (case-insensitive)
+     *
+     * @param category category name
+     * @return this query
+     */
+    public ProductQuery category(String category) {
+        this.category = category;
+        return this;
+    }
+
+    /**
+     * Only products priced between two values (inclusive)
+     *
+     * @param minPrice lowest price
+     * @param maxPrice highest price
+     * @return this query
+     */
+    public ProductQuery priceBetween(double minPrice, double maxPrice) {
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+        return this;
+    }
+
+    /**
+     * Only products with this stock state
+     *
+     * @param stockState In Stock, Low Stock or Out of Stock
+     * @return this query
+     */
+    public ProductQuery stockState(StockState stockState) {
+        this.stockState = stockState;
+        return this;
+    }
+
+    /**
+     * Only products whose name contains this text (case-insensitive)
+     *
+     * @param text part of the product name
+     * @return this query
+     */
+    public ProductQuery nameContains(String text) {
+        this.nameContains = text;
+        return this;
+    }
+
+    String getCategory() {
+        return category;
+    }
+
+    Double getMinPrice() {
+        return minPrice;
+    }
+
+    Double getMaxPrice() {
+        return maxPrice;
+    }
+
+    StockState getStockState() {
+        return stockState;
+    }
+
+    String getNameContains() {
+        return nameContains;
+    }
+}
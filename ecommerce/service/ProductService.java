@@ -2,103 +2,442 @@ package ecommerce.service;
 //this class should handle product-related operations for ADMINS
 
 import ecommerce.model.Product;
+import ecommerce.model.StockState;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 public class ProductService {
 
+    /**
+     * How product edits are persisted. REWRITE rewrites `products.csv` on
+     * every update/delete. JOURNAL appends change records to
+     * `products.journal` and a background compactor folds the journal into a
+     * new `products.csv` once it grows past {@link #COMPACT_THRESHOLD}
+     */
+    public enum PersistenceMode {
+        REWRITE, JOURNAL
+    }
+
+    /**
+     * How the in-memory catalog is held. OBJECTS keeps a Product object per
+     * product with tree indexes over them, in file order. COLUMNAR keeps the
+     * catalog in a {@link ColumnarProductStore} (parallel arrays, categories
+     * stored as small codes) and only makes Product objects when one is
+     * asked for, which takes a fraction of the memory for very large
+     * catalogs. In COLUMNAR the catalog is listed in ID order
+     */
+    public enum StoreLayout {
+        OBJECTS, COLUMNAR
+    }
+
+    // Files the catalog is stored in
+    private static final String PRODUCTS_CSV = "ecommerce/data/products.csv";
+    private static final String PRODUCTS_JOURNAL = "ecommerce/data/products.journal";
+    private static final String PRODUCTS_SEQUENCE = "ecommerce/data/products.seq";
+    private static final String PRODUCTS_LOCK = "ecommerce/data/products.csv.lock";
+    private static final String ORDER_PRODUCTS_CSV = "ecommerce/data/orderProducts.csv";
+
+    // Journal size (in characters) that triggers a background compaction
+    private static final long COMPACT_THRESHOLD = 256 * 1024;
+
     // CSV file where all products data is stored
     private final File productFile;
 
+    private final PersistenceMode mode;
+
+    private final StoreLayout layout;
+
+    // Change log replayed on top of products.csv (written to in JOURNAL mode)
+    private final ProductJournal journal;
+
+    // Held while products.csv is read for a reload, appended to or replaced,
+    // by any thread or process (the app and the import tool share the files)
+    private final CatalogLock snapshotLock = CatalogLock.forFile(new File(PRODUCTS_LOCK));
+
+    // Single background thread that folds the journal into products.csv
+    private ExecutorService compactor;
+
+    // Set while a compaction is queued or running so only one runs at a time
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+
+    // Hands out new product IDs from the high-water mark in products.seq
+    private final ProductIdAllocator idAllocator;
+
     // Writer used for appending new products to the CSV
     private FileWriter writer;
 
-    // Reader used when loading products from the CSV
-    private Scanner reader;
+    // Latest immutable catalog with its ID, name, name-search, category and range
+    // indexes, replaced (never modified) after every change. Writers replace it
+    // while holding this service's lock; readers only read the field
+    private volatile CatalogSnapshot snapshot = CatalogSnapshot.EMPTY;
+
+    // Sorted names for prefix autocomplete. Built on the completer thread and
+    // swapped in when ready; null until the first build is done
+    private volatile NameCompleter nameCompleter;
+
+    // Single background thread that builds the completer, off the UI thread and outside every lock
+    private final ExecutorService completerBuilder = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "name-completer-builder");
+        thread.setDaemon(true); // never keeps the app alive on exit
+        return thread;
+    });
+
+    // Set while a completer refresh is queued, so bursts of changes cause one refresh
+    private final AtomicBoolean completerQueued = new AtomicBoolean(false);
+
+    // Set when product names changed since the completer was last built
+    private final AtomicBoolean namesChanged = new AtomicBoolean(true);
 
-    private final ArrayList<Product> products;
+    // product ID --> units sold since the completer last picked them up
+    private final ConcurrentHashMap<Integer, Integer> unitsSold = new ConcurrentHashMap<>();
+
+    // product ID --> units ordered, read from orderProducts.csv. Only touched on the completer thread
+    private HashMap<Integer, Integer> unitsOrdered;
+
+    // product ID --> stock not held by an open reservation, kept in sync by trackStock()
+    private final StockLedger stockLedger = new StockLedger();
+
+    // Releases cart holds once their time to live runs out
+    private final StockHoldReaper holdReaper = new StockHoldReaper(stockLedger);
 
     public ProductService() throws IOException {
+        this(PersistenceMode.REWRITE);
+    }
+
+    public ProductService(PersistenceMode mode) throws IOException {
+        this(mode, StoreLayout.OBJECTS);
+    }
+
+    public ProductService(PersistenceMode mode, StoreLayout layout) throws IOException {
         // Itialize the file pointing to the products CSV
-        productFile = new File("ecommerce/data/products.csv");
+        productFile = new File(PRODUCTS_CSV);
+        journal = new ProductJournal(new File(PRODUCTS_JOURNAL));
+        idAllocator = new ProductIdAllocator(new File(PRODUCTS_SEQUENCE));
+        this.mode = mode;
+        this.layout = layout;
+
+        getAllProducts(); // Load existing products into memory, this also queues the first completer build
+    }
 
-        products = new ArrayList<>();
-        getAllProducts(); // Load existing products into memory
+    /**
+     * Loads a read-only, column-oriented copy of the catalog (including
+     * journaled edits) for scans over very large catalogs, such as reports.
+     * Much smaller than a ProductService since no Product objects or search
+     * indexes are built
+     *
+     * @return columnar copy of the current catalog
+     * @throws IOException
+     */
+    static ColumnarProductStore loadColumnarStore() throws IOException {
+        return ColumnarProductStore.load(new File(PRODUCTS_CSV), new ProductJournal(new File(PRODUCTS_JOURNAL)));
     }
 
     /**
-     * Generates the next product ID Currently it: -reads all existing products
-     * -finds the highest ID -returns maxID + 1
+     * Generates the next product ID from the persisted high-water mark, in
+     * constant time and safely across concurrent admin sessions
      *
      * @return next product ID
      * @throws IOException
      */
     private int generateProductID() throws IOException {
-        int maxID = 0;
+        return idAllocator.next();
+    }
+
+    /**
+     * Reserves a block of consecutive product IDs for a bulk operation. The
+     * IDs are never handed out again
+     *
+     * @param count number of IDs wanted
+     * @return the first ID of the block
+     * @throws IOException
+     */
+    public int reserveProductIds(int count) throws IOException {
+        return idAllocator.reserveBlock(count);
+    }
 
-        // Find the maximum ID currently in the products list
-        for (Product product : products) {
-            int id = Integer.parseInt(product.getId());
-            if (id > maxID) {
-                maxID = id;
+    /**
+     * Reads all products from the products CSV, replays any journaled changes
+     * on top of them and publishes the result as a new snapshot
+     *
+     * @throws IOException
+     */
+    private void getAllProducts() throws IOException {
+        CatalogSnapshot loaded;
+        snapshotLock.lock(); // no compaction swaps the files halfway through the read
+        try {
+            if (layout == StoreLayout.COLUMNAR) {
+                // The store replays the journal itself
+                loaded = CatalogSnapshot.of(ColumnarProductStore.load(productFile, journal));
+            } else {
+                LinkedHashMap<Integer, Product> products = readProductFile();
+                // Apply changes that have not been compacted into products.csv yet
+                journal.replay(products);
+                loaded = CatalogSnapshot.of(products.values());
             }
+        } finally {
+            snapshotLock.unlock();
         }
 
-        // Next avaliable ID is the largest existing ID + 1
-        return maxID + 1;
+        // Readers keep seeing the previous snapshot until the reload is published
+        snapshot = loaded;
+        stockLedger.clear();
+        for (Product product : loaded.products()) {
+            trackStock(null, product);
+            // Never hand out an ID that is already in the catalog
+            idAllocator.observe(Integer.parseInt(product.getId()));
+        }
+        namesChanged.set(true);
+        refreshCompleter();
     }
 
     /**
-     * Reads all products from the products CSV and returns them as a list of
-     * string arrays Each String[] corresponds to one row: [id, name, category,
-     * price, stock]
+     * Reads products.csv as it is on disk, without the journal. Callers hold
+     * the snapshot lock
      *
-     * @return list of all products
+     * @return products keyed by ID, in file order
      * @throws IOException
      */
-    private void getAllProducts() throws IOException {
-        products.clear();
-        // Open scanner on the products file 
-        reader = new Scanner(productFile);
+    private LinkedHashMap<Integer, Product> readProductFile() throws IOException {
+        LinkedHashMap<Integer, Product> loaded = new LinkedHashMap<>();
+        if (!productFile.exists()) {
+            return loaded;
+        }
+        // Parse every row after the header (in parallel for large catalogs). Not
+        // memory-mapped, a live mapping would block moving the next snapshot over it
+        List<Product> rows = MappedCsvLoader.load(productFile, true, true,
+                row -> new Product(row.field(0), row.field(1), row.field(2), row.doubleField(3), row.intField(4)));
+
+        // Key the rows by ID in file order
+        for (Product product : rows) {
+            loaded.put(Integer.parseInt(product.getId()), product);
+        }
+        return loaded;
+    }
 
-        // Skip header line
-        reader.nextLine();
+    /**
+     * Returns every product in catalog order. The list is an immutable
+     * snapshot: it never changes, even if the catalog is edited afterwards
+     *
+     * @return all products
+     */
+    public List<Product> getProducts() {
+        return snapshot.products();
+    }
 
-        // Read each remaining line and split on commas 
-        while (reader.hasNextLine()) {
-            String line = reader.nextLine();
-            String[] parts = line.split(",");
-            products.add(new Product(parts[0], parts[1], parts[2], Double.parseDouble(parts[3]), Integer.parseInt(parts[4])));
+    /**
+     * Publishes a new snapshot with a batch of changes applied. Only the
+     * snapshot's overlay is copied, see {@link CatalogSnapshot}. Callers hold
+     * this service's lock and do their file I/O first
+     *
+     * @param changes product ID --> new or updated product, null to delete it
+     */
+    private void publish(Map<Integer, Product> changes) {
+        snapshot = snapshot.withChanges(changes);
+        if (namesChanged.get()) {
+            refreshCompleter();
         }
+    }
 
-        // Close reader 
-        reader.close();
+    /**
+     * Moves a product's available stock by the change in its catalog stock,
+     * in one atomic step so concurrent reservations never see a partial value
+     *
+     * @param before product being replaced or removed, null for a new product
+     * @param after replacement product, null if the product was removed
+     */
+    private void trackStock(Product before, Product after) {
+        Product product = after != null ? after : before;
+        int delta = (after == null ? 0 : after.getAvailableStock()) - (before == null ? 0 : before.getAvailableStock());
+        stockLedger.add(Integer.parseInt(product.getId()), delta);
+    }
+
+    // Case-folded key used by the name index
+    private static String nameKey(String name) {
+        return name.toLowerCase(Locale.ROOT);
     }
 
     public Product getProductByName(String name) throws IOException {
-        for (Product product : products) {
-            if (product.getName().equalsIgnoreCase(name)) {
-                return product;
-            }
+        if (name == null) {
+            return null;
         }
-        return null; // Product not found
+        return snapshot.byName(nameKey(name)); // null if product not found
     }
 
     public Product getProductByID(int id) throws IOException {
-        for (Product product : products) {
-            if (Integer.parseInt(product.getId()) == id) {
-                return product;
+        return snapshot.byId(id); // null if product not found
+    }
+
+    /**
+     * Lists the products in one category (case-insensitive). Reads only that
+     * category's entries in the category index, not the whole catalog
+     *
+     * @param category category name
+     * @return products in the category ordered by ID, empty if there are none
+     */
+    public List<Product> getProductsByCategory(String category) {
+        if (category == null) {
+            return new ArrayList<>();
+        }
+        return snapshot.inCategory(category.trim());
+    }
+
+    /**
+     * Returns how many products each category has. The counts are kept up to
+     * date on every add, update and delete
+     *
+     * @return category name --> product count, sorted by category name
+     */
+    public Map<String, Integer> getCategoryCounts() {
+        return snapshot.categoryCounts();
+    }
+
+    /**
+     * Lists the products priced between two values (inclusive), read from
+     * the sorted price index
+     *
+     * @param minPrice lowest price
+     * @param maxPrice highest price
+     * @return matching products, cheapest first
+     */
+    public List<Product> getProductsByPriceRange(double minPrice, double maxPrice) {
+        return snapshot.byPrice(minPrice, maxPrice);
+    }
+
+    /**
+     * Lists the products whose stock is between two values (inclusive), read
+     * from the sorted stock index
+     *
+     * @param minStock lowest stock
+     * @param maxStock highest stock
+     * @return matching products, lowest stock first
+     */
+    public List<Product> getProductsByStockRange(int minStock, int maxStock) {
+        return snapshot.byStock(minStock, true, maxStock, true);
+    }
+
+    /**
+     * Lists the products with less than a given stock, e.g. for restocking
+     *
+     * @param threshold stock limit (exclusive)
+     * @return matching products, lowest stock first
+     */
+    public List<Product> getProductsWithStockBelow(int threshold) {
+        return snapshot.byStock(null, false, threshold, false);
+    }
+
+    /**
+     * Finds the products matching every condition of a query, in ID order
+     *
+     * @param query conditions to match
+     * @return matching products
+     */
+    public List<Product> findProducts(ProductQuery query) {
+        return findProducts(query, 0);
+    }
+
+    /**
+     * Finds the products matching every condition of a query. Each condition
+     * sets the bits of its product IDs straight from its index (category,
+     * price, stock or name trigrams) and the bitsets are intersected, so no
+     * condition scans the catalog or builds a list of products
+     *
+     * @param query conditions to match
+     * @param sortValue sort option, same values as displayProducts (0 keeps ID order)
+     * @return matching products
+     */
+    public List<Product> findProducts(ProductQuery query, int sortValue) {
+        BitSet matches = null;
+        CatalogSnapshot catalog = snapshot; // holds its own indexes, so every match is in it
+        if (query.getCategory() != null) {
+            BitSet inCategory = new BitSet();
+            catalog.collectCategory(query.getCategory().trim(), inCategory);
+            matches = intersect(matches, inCategory);
+        }
+        if (query.getMinPrice() != null) {
+            BitSet inRange = new BitSet();
+            catalog.collectPrice(query.getMinPrice(), query.getMaxPrice(), inRange);
+            matches = intersect(matches, inRange);
+        }
+        if (query.getStockState() != null) {
+            BitSet inState = new BitSet();
+            collectIdsInState(catalog, query.getStockState(), inState);
+            matches = intersect(matches, inState);
+        }
+        if (query.getNameContains() != null && !query.getNameContains().trim().isEmpty()) {
+            BitSet named = new BitSet();
+            catalog.collectNames(query.getNameContains(), named);
+            matches = intersect(matches, named);
+        }
+
+        ArrayList<Product> result = new ArrayList<>();
+        if (matches == null) {
+            result.addAll(catalog.products()); // no conditions, everything matches
+            result.sort(Comparator.comparingInt(product -> Integer.parseInt(product.getId())));
+        } else {
+            for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+                result.add(catalog.byId(id));
             }
         }
-        return null; // Product not found
+        Comparator<Product> order = sortOrder(sortValue);
+        if (order != null) {
+            result.sort(order);
+        }
+        return result;
+    }
+
+    // Sets the IDs of the products in one stock state from the snapshot's stock index
+    private static void collectIdsInState(CatalogSnapshot catalog, StockState state, BitSet bits) {
+        switch (state) {
+            case IN_STOCK:
+                catalog.collectStock(StockState.LOW_STOCK_LIMIT, false, null, false, bits);
+                break;
+            case LOW_STOCK:
+                catalog.collectStock(0, false, StockState.LOW_STOCK_LIMIT, true, bits);
+                break;
+            default:
+                catalog.collectStock(null, false, 0, true, bits);
+                break;
+        }
+    }
+
+    // ANDs a condition into the running result, null means no condition yet
+    private static BitSet intersect(BitSet matches, BitSet condition) {
+        if (matches == null) {
+            return condition;
+        }
+        matches.and(condition);
+        return matches;
     }
 
     /**
      * Search products by name (case-insensitive, partial match) and return a
-     * formatted string for display. If no products match, returns a message
+     * formatted string for display, best matches first. Only products sharing
+     * every trigram of the query are checked. If no products match, returns a
+     * message
      *
      * @param query search string
      * @param isAdmin whether to include admin-only fields (ID, stock)
@@ -109,32 +448,131 @@ public class ProductService {
         if (query == null || query.trim().isEmpty()) {
             return "Please enter a search term.";
         }
-        String q = query.trim().toLowerCase();
         StringBuilder results = new StringBuilder();
-        for (Product product : products) {
-            if (product.getName().toLowerCase().contains(q)) {
-                results.append("Name: ").append(product.getName())
-                        .append(" | Category: ").append(product.getCategory())
-                        .append(" | Price: $").append(String.format("%.2f", product.getPrice()));
-                if (isAdmin) {
-                    results.append(" | ID: ").append(product.getId())
-                            .append(" | Stock: ").append(product.getAvailableStock());
-                } else if (product.getAvailableStock() > 10) {
-                    results.append(" | In Stock");
-                } else if (product.getAvailableStock() > 0) {
-                    results.append(" | Low Stock");
-                } else {
-                    results.append(" | Out of Stock");
-                }
-                results.append("\n");
-            }
+        for (Product product : snapshot.search(query)) {
+            appendProductLine(results, product, isAdmin);
         }
         if (results.length() == 0) {
-            return "No products found for '" + query + "'.";
+            // Maybe a typo, offer the closest names instead
+            List<Product> suggestions = fuzzySearchProducts(query, 5);
+            if (suggestions.isEmpty()) {
+                return "No products found for '" + query + "'.";
+            }
+            results.append("No products found for '").append(query).append("'. Did you mean:\n");
+            for (Product product : suggestions) {
+                appendProductLine(results, product, isAdmin);
+            }
         }
         return results.toString();
     }
 
+    /**
+     * Autocompletes a product name: returns the names starting with the typed
+     * prefix (case-insensitive), most ordered first. Answered from a sorted
+     * name array with binary search, so it is fast enough to run on every
+     * keystroke. The completer is built in the background when the catalog
+     * loads and rebuilt there after name changes; until the first build is
+     * done no names are suggested, and the previous completer keeps answering
+     * while a rebuild runs
+     *
+     * @param prefix typed text
+     * @param k maximum number of names
+     * @return up to k product names
+     */
+    public List<String> completeProductNames(String prefix, int k) {
+        NameCompleter completer = nameCompleter;
+        if (prefix == null || prefix.trim().isEmpty() || completer == null) {
+            return new ArrayList<>();
+        }
+        return completer.complete(prefix.trim(), k);
+    }
+
+    /**
+     * Queues a completer refresh on the completer thread, unless one is
+     * already queued. The refresh rebuilds the completer if names changed,
+     * otherwise it only adds the units sold since the last refresh
+     */
+    private void refreshCompleter() {
+        if (!completerQueued.compareAndSet(false, true)) {
+            return;
+        }
+        completerBuilder.submit(() -> {
+            completerQueued.set(false); // changes from here on queue another refresh
+            boolean rebuild = namesChanged.getAndSet(false); // always read, or a first build leaves it set
+            try {
+                Map<Integer, Integer> units = loadUnitsOrdered();
+                HashMap<Integer, Integer> sold = new HashMap<>();
+                for (Integer id : unitsSold.keySet()) {
+                    Integer count = unitsSold.remove(id);
+                    if (count != null) {
+                        sold.put(id, count);
+                        units.merge(id, count, Integer::sum);
+                    }
+                }
+                NameCompleter current = nameCompleter;
+                if (current == null || rebuild) {
+                    nameCompleter = new NameCompleter(snapshot.products(), units);
+                } else if (!sold.isEmpty()) {
+                    nameCompleter = current.withPopularity(sold);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (rebuild) {
+                    namesChanged.set(true); // still stale
+                }
+                e.printStackTrace(); // autocomplete is optional, the next change retries
+            }
+        });
+    }
+
+    /**
+     * Totals the units ordered per product from orderProducts.csv, read once
+     * and then kept up to date with the sales of this run. Only called on the
+     * completer thread
+     *
+     * @return product ID --> units ordered
+     * @throws IOException
+     */
+    private Map<Integer, Integer> loadUnitsOrdered() throws IOException {
+        if (unitsOrdered != null) {
+            return unitsOrdered;
+        }
+        HashMap<Integer, Integer> loaded = new HashMap<>();
+        File file = new File(ORDER_PRODUCTS_CSV);
+        if (file.exists()) {
+            CsvReader reader = new CsvReader(file);
+            reader.next(); // skip CSV header row
+            while (reader.next()) {
+                // CSV format: order id, product id1, quantity1, product id2, quantity2
+                for (int i = 1; i + 1 < reader.fieldCount(); i += 2) {
+                    try {
+                        loaded.merge(reader.intField(i), reader.intField(i + 1), Integer::sum);
+                    } catch (NumberFormatException ignored) {
+                        // skip malformed pairs
+                    }
+                }
+            }
+            reader.close();
+        }
+        unitsOrdered = loaded;
+        return unitsOrdered;
+    }
+
+    /**
+     * Typo-tolerant search: returns the products whose names are closest to
+     * the query by edit distance. Only products sharing trigrams with the
+     * query are compared, so no full catalog scan is done
+     *
+     * @param query search string (at least 3 characters)
+     * @param k maximum number of suggestions
+     * @return up to k products, closest first
+     */
+    public List<Product> fuzzySearchProducts(String query, int k) {
+        if (query == null) {
+            return new ArrayList<>();
+        }
+        return snapshot.similar(query, k);
+    }
+
     /**
      * Appends a new product to the CSV file ID is auto-generated, everything
      * else comes from the caller
@@ -145,23 +583,44 @@ public class ProductService {
      * @param stock
      * @throws IOException
      */
-    public void addProduct(String name, String category, double price, int stock) throws IOException {
-        // Open writer in append mode
-        writer = new FileWriter(productFile, true);
-
+    public synchronized void addProduct(String name, String category, double price, int stock) throws IOException {
         // Generate a unique product ID
         String id = String.valueOf(generateProductID());
 
+        if (mode == PersistenceMode.JOURNAL) {
+            Product product = new Product(id, name, category, price, stock);
+            journal.append(ProductJournal.upsertRecord(product));
+            namesChanged.set(true);
+            publish(Collections.singletonMap(Integer.parseInt(product.getId()), product));
+            trackStock(null, product);
+            System.out.println("Product added successfully: " + name);
+            compactIfNeeded();
+            return;
+        }
+
         // Build CSV line representing the new product
         String productEntry = "\n" + id + "," + name + "," + category + "," + price + "," + stock;
 
-        // Append to file and flush to ensure it is written immediately
-        writer.write(productEntry);
-        writer.flush();
-        writer.close(); // Close writer
+        snapshotLock.lock(); // never append while a compaction replaces the file
+        try {
+            // Open writer in append mode
+            writer = new FileWriter(productFile, true);
+
+            // Append to file and flush to ensure it is written immediately
+            writer.write(productEntry);
+            writer.flush();
+            writer.close(); // Close writer
+        } finally {
+            snapshotLock.unlock();
+        }
 
         System.out.println("Product added successfully: " + name);
-        getAllProducts(); // Refresh the in-memory products list
+
+        // Publish the new row with the in-memory indexes
+        Product product = new Product(id, name, category, price, stock);
+        namesChanged.set(true);
+        publish(Collections.singletonMap(Integer.parseInt(product.getId()), product));
+        trackStock(null, product);
     }
 
     /**
@@ -177,44 +636,38 @@ public class ProductService {
      * @param stock
      * @throws IOException
      */
-    public void updateProduct(int productId, String name, String category, double price, int stock) throws IOException {
-        // Temporary file that will hold updated contents
-        FileWriter tempWriter = new FileWriter("ecommerce/data/temp_products.csv");
-
-        // Write CSV header first 
-        tempWriter.write("id, name, category, price, stock"); //header
-
-        // Rewrite each product row, updating only the one with the matching ID
-        for (Product product : products) {
-            int id = Integer.parseInt(product.getId());
-            if (id == productId) {
-                //Build updated line
-                String updatedEntry = "\n" + productId + "," + name + "," + category + "," + price + "," + stock;
-                tempWriter.write(updatedEntry);
-            } else {
-                // Keep existing row unchanged
-                String existingEntry = "\n" + product.getId() + "," + product.getName() + "," + product.getCategory() + "," + product.getPrice() + "," + product.getAvailableStock();
-                tempWriter.write(existingEntry);
+    public synchronized void updateProduct(int productId, String name, String category, double price, int stock) throws IOException {
+        if (mode == PersistenceMode.JOURNAL) {
+            Product existing = snapshot.byId(productId);
+            if (existing == null) {
+                System.out.println("Failed to update product: ID " + productId);
+                return;
             }
+            // Log the change, then publish it
+            Product updated = new Product(existing.getId(), name, category, price, stock);
+            journal.append(ProductJournal.upsertRecord(updated));
+            namesChanged.set(true);
+            publish(Collections.singletonMap(productId, updated));
+            trackStock(existing, updated);
+            System.out.println("Product updated successfully: ID " + productId);
+            compactIfNeeded();
+            return;
         }
-        tempWriter.close();
-        if (writer != null) {
-            writer.close(); // Close the original writer before replacing the file
-        }
-        // Swap temporary file in place of the original products file
-        File originalFile = new File("ecommerce/data/products.csv");
-        File tempFile = new File("ecommerce/data/temp_products.csv");
 
-        if (originalFile.delete()) {
-            tempFile.renameTo(originalFile);
-
-            // // Reopen writer in append mode on the new products file
-            // writer = new FileWriter(productFile, true);
-            System.out.println("Product updated successfully: ID " + productId);
-        } else {
+        Product existing = snapshot.byId(productId);
+        if (existing == null) {
             System.out.println("Failed to update product: ID " + productId);
+            return;
         }
-        getAllProducts(); // Refresh the in-memory products list
+        // Rewrite products.csv with the matching row replaced
+        Product updated = new Product(existing.getId(), name, category, price, stock);
+        rewriteProductFile(onDisk -> onDisk.replace(productId, updated));
+        System.out.println("Product updated successfully: ID " + productId);
+
+        // Publish the same change in memory
+        namesChanged.set(true);
+        publish(Collections.singletonMap(productId, updated));
+        trackStock(existing, updated);
     }
 
     /**
@@ -225,106 +678,776 @@ public class ProductService {
      * @param productId
      * @throws IOException
      */
-    public void deleteProduct(int productId) throws IOException {
-        // Temp file to hold remaining products
-        FileWriter tempWriter = new FileWriter("ecommerce/data/temp_products.csv");
-        tempWriter.write("id, name, category, price, stock"); //header
+    public synchronized void deleteProduct(int productId) throws IOException {
+        if (mode == PersistenceMode.JOURNAL) {
+            Product existing = snapshot.byId(productId);
+            if (existing == null) {
+                System.out.println("Failed to delete product: ID " + productId);
+                return;
+            }
+            journal.append(ProductJournal.deleteRecord(productId));
+            namesChanged.set(true);
+            publish(Collections.singletonMap(productId, null));
+            trackStock(existing, null);
+            System.out.println("Product deleted successfully: ID " + productId);
+            compactIfNeeded();
+            return;
+        }
 
-        // Copy every product except the one being deleted 
-        for (Product product : products) {
-            int id = Integer.parseInt(product.getId());
-            if (id != productId) {
-                String existingEntry = "\n" + product.getId() + "," + product.getName() + "," + product.getCategory() + "," + product.getPrice() + "," + product.getAvailableStock();
-                tempWriter.write(existingEntry);
+        Product existing = snapshot.byId(productId);
+        if (existing == null) {
+            System.out.println("Failed to delete product: ID " + productId);
+            return;
+        }
+        // Rewrite products.csv without the product's row
+        rewriteProductFile(onDisk -> onDisk.remove(productId));
+        System.out.println("Product deleted successfully: ID " + productId);
+
+        // Drop the product from the published catalog
+        namesChanged.set(true);
+        publish(Collections.singletonMap(productId, null));
+        trackStock(existing, null);
+    }
+
+    /**
+     * Adds every product from a CSV of new products in one batch. The file
+     * has a header row and then rows of name, category, price, stock (no
+     * IDs). Large files are parsed in parallel chunks; IDs are then handed
+     * out in file order from one reserved block, all rows are written with a single
+     * write (one journal append or one products.csv append) and published
+     * as one snapshot change. Rows with missing fields, bad numbers or
+     * negative values are skipped
+     *
+     * @param file CSV of products to import
+     * @return number of products imported
+     * @throws IOException if the file cannot be read or the catalog cannot be
+     * written
+     */
+    public synchronized int importProducts(File file) throws IOException {
+        AtomicInteger skipped = new AtomicInteger();
+        List<ImportRow> rows = MappedCsvLoader.load(file, true, false, row -> {
+            try {
+                if (row.fieldCount() >= 4) {
+                    ImportRow parsed = new ImportRow(row.field(0), row.field(1), row.doubleField(2), row.intField(3));
+                    if (!parsed.name.isEmpty() && !parsed.category.isEmpty() && parsed.price >= 0 && parsed.stock >= 0) {
+                        return parsed;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                // fall through and skip the row
             }
+            skipped.incrementAndGet();
+            return null;
+        });
+
+        // Assign IDs from one reserved block and build every record before touching the catalog
+        int nextId = rows.isEmpty() ? 0 : idAllocator.reserveBlock(rows.size());
+        ArrayList<Product> imported = new ArrayList<>(rows.size());
+        StringBuilder records = new StringBuilder();
+        for (ImportRow row : rows) {
+            Product product = new Product(String.valueOf(nextId++), row.name, row.category, row.price, row.stock);
+            imported.add(product);
+            if (mode == PersistenceMode.JOURNAL) {
+                records.append(ProductJournal.upsertRecord(product));
+            } else {
+                records.append("\n").append(product.getId()).append(",").append(product.getName()).append(",")
+                        .append(product.getCategory()).append(",").append(product.getPrice()).append(",")
+                        .append(product.getAvailableStock());
+            }
+        }
+
+        if (!imported.isEmpty()) {
+            if (mode == PersistenceMode.JOURNAL) {
+                journal.append(records.toString());
+            } else {
+                snapshotLock.lock(); // never append while a compaction replaces the file
+                try (FileWriter appender = new FileWriter(productFile, true)) {
+                    appender.write(records.toString());
+                } finally {
+                    snapshotLock.unlock();
+                }
+            }
+            LinkedHashMap<Integer, Product> added = new LinkedHashMap<>();
+            for (Product product : imported) {
+                added.put(Integer.parseInt(product.getId()), product);
+            }
+            namesChanged.set(true);
+            publish(added);
+            for (Product product : imported) {
+                trackStock(null, product);
+            }
+        }
+        System.out.println("Imported " + imported.size() + " product(s), skipped " + skipped.get() + " row(s)");
+        if (mode == PersistenceMode.JOURNAL) {
+            compactIfNeeded();
+        }
+        return imported.size();
+    }
+
+    // One parsed row of an import file, before it has an ID
+    private static class ImportRow {
+
+        private final String name;
+        private final String category;
+        private final double price;
+        private final int stock;
+
+        ImportRow(String name, String category, double price, int stock) {
+            this.name = name;
+            this.category = category;
+            this.price = price;
+            this.stock = stock;
+        }
+    }
+
+    /**
+     * Hands the journal to the background compactor once it has grown past
+     * the threshold. Only one compaction is queued at a time
+     */
+    private void compactIfNeeded() {
+        if (journal.size() < COMPACT_THRESHOLD || !compacting.compareAndSet(false, true)) {
+            return;
+        }
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "product-journal-compactor");
+                thread.setDaemon(true); // never keeps the app alive on exit
+                return thread;
+            });
+        }
+        compactor.submit(() -> {
+            try {
+                compact();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    /**
+     * Folds the journal into a new products.csv snapshot. The journal is
+     * rotated and the snapshot rebuilt from products.csv plus the rotated
+     * journal as they are on disk, never from this instance's memory, so
+     * changes written by other instances or processes are kept. Edits are not
+     * blocked meanwhile, they keep going to a fresh journal; other
+     * compactions and products.csv writers wait for the snapshot lock
+     *
+     * @throws IOException
+     */
+    public void compact() throws IOException {
+        snapshotLock.lock();
+        try {
+            journal.rotate();
+            LinkedHashMap<Integer, Product> folded = readProductFile();
+            journal.replayRotated(folded);
+
+            // Swap the snapshot in, then drop the journal records it now contains
+            writeProductFile(folded.values(), new File("ecommerce/data/products_snapshot.tmp"));
+            journal.finishCompaction();
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites products.csv (REWRITE mode) from the catalog as it is on
+     * disk, products.csv plus every journal record whoever wrote them, with
+     * one change applied, then drops the journal it folded in. Both the
+     * snapshot and journal locks are held throughout, so no thread or
+     * process changes the files in between
+     *
+     * @param change applied to the products keyed by ID, in file order
+     * @throws IOException
+     */
+    private void rewriteProductFile(Consumer<Map<Integer, Product>> change) throws IOException {
+        snapshotLock.lock();
+        try {
+            journal.lock();
+            try {
+                LinkedHashMap<Integer, Product> onDisk = readProductFile();
+                journal.replay(onDisk);
+                change.accept(onDisk);
+                writeProductFile(onDisk.values(), new File("ecommerce/data/temp_products.csv"));
+                journal.clear(); // products.csv now holds any journaled changes too
+            } finally {
+                journal.unlock();
+            }
+        } finally {
+            snapshotLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the given rows to a temporary file and atomically moves it over
+     * products.csv
+     *
+     * @param rows products to write, in order
+     * @param tempFile scratch file to write before the swap
+     * @throws IOException
+     */
+    private void writeProductFile(Collection<Product> rows, File tempFile) throws IOException {
+        FileWriter tempWriter = new FileWriter(tempFile);
+        tempWriter.write("id, name, category, price, stock"); //header
+        for (Product product : rows) {
+            tempWriter.write("\n" + product.getId() + "," + product.getName() + "," + product.getCategory() + "," + product.getPrice() + "," + product.getAvailableStock());
         }
         tempWriter.close();
-        if (writer != null) {
-            writer.close();
+        Files.move(tempFile.toPath(), productFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Applies a batch of stock changes (e.g. every line of one checkout) in a
+     * single pass with a single write: one journal append in JOURNAL mode or
+     * one products.csv rewrite in REWRITE mode
+     *
+     * @param deltas product ID --> change in stock (negative to decrement)
+     * @throws IOException
+     */
+    public synchronized void adjustStock(Map<Integer, Integer> deltas) throws IOException {
+        adjustStock(deltas, Collections.emptyMap(), 0);
+    }
+
+    /**
+     * Applies a batch of stock changes. Units listed in reserved were already
+     * taken from the available stock by a reservation, so they are not taken
+     * a second time
+     *
+     * @param deltas product ID --> change in stock
+     * @param reserved product ID --> units held by the reservation being committed
+     * @param tx number of the checkout making the change, 0 for none. A
+     * checkout's records are always journaled (whatever the mode) and synced,
+     * tagged with its number
+     * @throws IOException
+     */
+    private void adjustStock(Map<Integer, Integer> deltas, Map<Integer, Integer> reserved, long tx) throws IOException {
+        // Build the updated products first so nothing changes if the write fails
+        CatalogSnapshot catalog = snapshot;
+        LinkedHashMap<Product, Product> changes = new LinkedHashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> delta : deltas.entrySet()) {
+            Product existing = catalog.byId(delta.getKey());
+            if (existing == null) {
+                System.out.println("Failed to adjust stock: ID " + delta.getKey());
+                missing.add(delta.getKey());
+                continue;
+            }
+            changes.put(existing, new Product(existing.getId(), existing.getName(), existing.getCategory(),
+                    existing.getPrice(), existing.getAvailableStock() + delta.getValue()));
+        }
+        if (changes.isEmpty()) {
+            releaseMissing(missing, reserved);
+            return;
         }
-        File originalFile = new File("ecommerce/data/products.csv");
-        File tempFile = new File("ecommerce/data/temp_products.csv");
-        if (originalFile.delete()) {
-            tempFile.renameTo(originalFile);
 
-            // // Open writer again for appending 
-            // writer = new FileWriter(productFile, true);
-            System.out.println("Product deleted successfully: ID " + productId);
+        boolean journaled = mode == PersistenceMode.JOURNAL || tx != 0;
+        if (journaled) {
+            StringBuilder records = new StringBuilder();
+            for (Product updated : changes.values()) {
+                records.append(tx != 0 ? ProductJournal.upsertRecord(updated, tx) : ProductJournal.upsertRecord(updated));
+            }
+            journal.append(records.toString(), tx != 0);
         } else {
-            System.out.println("Failed to delete product: ID " + productId);
+            rewriteProductFile(onDisk -> {
+                for (Product updated : changes.values()) {
+                    onDisk.replace(Integer.parseInt(updated.getId()), updated);
+                }
+            });
+        }
+
+        // Publish every change as one snapshot change
+        LinkedHashMap<Integer, Product> batch = new LinkedHashMap<>();
+        for (Product updated : changes.values()) {
+            batch.put(Integer.parseInt(updated.getId()), updated);
+        }
+        publish(batch);
+        releaseMissing(missing, reserved);
+        for (Map.Entry<Product, Product> change : changes.entrySet()) {
+            // Units held by the reservation already left the available stock
+            int id = Integer.parseInt(change.getValue().getId());
+            stockLedger.add(id, change.getValue().getAvailableStock() - change.getKey().getAvailableStock()
+                    + reserved.getOrDefault(id, 0));
+        }
+        System.out.println("Stock adjusted for " + changes.size() + " product(s)");
+        if (journaled) {
+            compactIfNeeded();
         }
-        getAllProducts(); // Refresh the in-memory products list
     }
 
-    public boolean validateProductByName(String name) throws IOException {
-        for (Product product : products) {
-            if (product.getName().equalsIgnoreCase(name)) {
-                return true;
+    /**
+     * Hands back the units a reservation held for products that were deleted
+     * before the checkout committed, there is nothing left to commit them to
+     */
+    private void releaseMissing(List<Integer> missing, Map<Integer, Integer> reserved) {
+        for (int id : missing) {
+            stockLedger.add(id, reserved.getOrDefault(id, 0));
+        }
+    }
+
+    /**
+     * Reserves stock for a checkout. Either every line is reserved or none
+     * is. Reserving is lock-free, so checkouts run in parallel and never
+     * block on each other or on catalog edits
+     *
+     * @param quantities product ID --> units wanted (must be positive)
+     * @return the reservation, or null if some product does not have enough
+     * stock available
+     */
+    public StockReservation reserveStock(Map<Integer, Integer> quantities) {
+        Map<Integer, Integer> taken = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Integer> line : quantities.entrySet()) {
+            if (line.getValue() <= 0) {
+                throw new IllegalArgumentException("Quantity must be greater than zero");
+            }
+            if (!stockLedger.reserve(line.getKey(), line.getValue())) {
+                // Not enough stock, give back the lines already taken
+                for (Map.Entry<Integer, Integer> done : taken.entrySet()) {
+                    stockLedger.add(done.getKey(), done.getValue());
+                }
+                return null;
             }
+            taken.put(line.getKey(), line.getValue());
         }
-        return false; // Product not found
+        return new StockReservation(taken);
     }
 
-    public boolean validateProductByID(String idStr) throws IOException {
-        int id = Integer.parseInt(idStr);
-        for (Product product : products) {
-            if (Integer.parseInt(product.getId()) == id) {
-                return true;
+    /**
+     * Holds stock for a cart for a limited time. The hold works like a
+     * reservation, but if it is neither committed nor released within
+     * ttlMillis its units go back to the available stock automatically
+     *
+     * @param quantities product ID --> units wanted (must be positive)
+     * @param ttlMillis how long the hold lasts, in milliseconds
+     * @return the hold, or null if some product does not have enough stock
+     * available
+     */
+    public StockReservation holdStock(Map<Integer, Integer> quantities, long ttlMillis) {
+        StockReservation hold = reserveStock(quantities);
+        if (hold != null) {
+            holdReaper.schedule(hold, ttlMillis);
+        }
+        return hold;
+    }
+
+    /**
+     * Shrinks the holds a cart has on one product to a smaller quantity. The
+     * holds that are still open are folded into one new hold of at most
+     * quantity units and the rest is given back. Nothing is reserved, so
+     * this never fails
+     *
+     * @param holds holds on the product from holdStock, open or not
+     * @param productId product ID
+     * @param quantity units to keep held
+     * @param ttlMillis how long the new hold lasts, in milliseconds
+     * @return the new hold, or null if no units are held anymore
+     */
+    public StockReservation shrinkHolds(Collection<StockReservation> holds, int productId, int quantity, long ttlMillis) {
+        int held = 0;
+        for (StockReservation hold : holds) {
+            if (hold.close()) {
+                held += hold.getQuantities().getOrDefault(productId, 0);
             }
         }
-        return false; // Product not found
+        int kept = Math.min(held, quantity);
+        if (held > kept) {
+            stockLedger.add(productId, held - kept);
+        }
+        if (kept <= 0) {
+            return null;
+        }
+        StockReservation hold = new StockReservation(Map.of(productId, kept));
+        holdReaper.schedule(hold, ttlMillis);
+        return hold;
     }
 
     /**
-     * Returns a human-readable string listing all products in the system
-     * formatted for display in GUI
+     * Reserves stock for a checkout, reusing the units a cart already holds.
+     * Holds that are still open are folded into the new reservation, units
+     * lost to expired holds are reserved again and surplus held units are
+     * given back. Either the full quantities are reserved or nothing is, in
+     * which case every hold passed in has been released
      *
-     * @return
+     * @param quantities product ID --> units wanted (must be positive)
+     * @param holds cart holds from holdStock, open or not
+     * @return the reservation, or null if some product does not have enough
+     * stock available
+     */
+    public StockReservation reserveStock(Map<Integer, Integer> quantities, Collection<StockReservation> holds) {
+        // Take over the units of every hold that has not expired yet
+        Map<Integer, Integer> held = new HashMap<>();
+        for (StockReservation hold : holds) {
+            if (hold.close()) {
+                for (Map.Entry<Integer, Integer> line : hold.getQuantities().entrySet()) {
+                    held.merge(line.getKey(), line.getValue(), Integer::sum);
+                }
+            }
+        }
+
+        // Reserve whatever the holds do not cover
+        Map<Integer, Integer> missing = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Integer> line : quantities.entrySet()) {
+            int needed = line.getValue() - held.getOrDefault(line.getKey(), 0);
+            if (needed > 0) {
+                missing.put(line.getKey(), needed);
+            }
+        }
+        if (!missing.isEmpty() && reserveStock(missing) == null) {
+            for (Map.Entry<Integer, Integer> line : held.entrySet()) {
+                stockLedger.add(line.getKey(), line.getValue());
+            }
+            return null;
+        }
+
+        // Give back held units the checkout no longer needs
+        for (Map.Entry<Integer, Integer> line : held.entrySet()) {
+            int surplus = line.getValue() - quantities.getOrDefault(line.getKey(), 0);
+            if (surplus > 0) {
+                stockLedger.add(line.getKey(), surplus);
+            }
+        }
+        return new StockReservation(quantities);
+    }
+
+    /**
+     * Persists the stock decrement for a reservation. If the write fails the
+     * reservation is released and the exception is rethrown
+     *
+     * @param reservation open reservation from reserveStock
      * @throws IOException
+     * @throws IllegalStateException if the reservation was already committed
+     * or released
      */
-    public String displayProducts(int sortValue, boolean isAdmin) throws IOException {
-        StringBuilder productList = new StringBuilder();
+    public synchronized void commitReservation(StockReservation reservation) throws IOException {
+        if (!reservation.close()) {
+            throw new IllegalStateException("Reservation is already committed or released");
+        }
+        Map<Integer, Integer> deltas = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Integer> line : reservation.getQuantities().entrySet()) {
+            deltas.put(line.getKey(), -line.getValue());
+        }
+        try {
+            adjustStock(deltas, reservation.getQuantities(), 0);
+        } catch (IOException e) {
+            for (Map.Entry<Integer, Integer> line : reservation.getQuantities().entrySet()) {
+                stockLedger.add(line.getKey(), line.getValue());
+            }
+            throw e;
+        }
+        countSale(reservation.getQuantities());
+    }
+
+    /**
+     * Persists the stock decrement for a logged checkout. The journal records
+     * are tagged with the checkout's number and synced, then the checkout's
+     * S marker is synced while the journal is still locked, so no compaction
+     * or rewrite can fold the tagged records away before the marker is on
+     * disk. If the stock cannot be written the reservation is released and
+     * the exception is rethrown
+     *
+     * @param reservation open reservation from reserveStock
+     * @param tx checkout number from CheckoutLog.begin()
+     * @param log log holding the checkout
+     * @return true if the S marker was written, false if the stock was
+     * applied but the marker could not be written yet
+     * @throws IOException if the stock was not applied
+     * @throws IllegalStateException if the reservation was already committed
+     * or released
+     */
+    synchronized boolean commitCheckout(StockReservation reservation, long tx, CheckoutLog log) throws IOException {
+        if (!reservation.close()) {
+            throw new IllegalStateException("Reservation is already committed or released");
+        }
+        Map<Integer, Integer> deltas = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Integer> line : reservation.getQuantities().entrySet()) {
+            deltas.put(line.getKey(), -line.getValue());
+        }
+        journal.lock();
+        try {
+            try {
+                adjustStock(deltas, reservation.getQuantities(), tx);
+            } catch (IOException | RuntimeException e) {
+                for (Map.Entry<Integer, Integer> line : reservation.getQuantities().entrySet()) {
+                    stockLedger.add(line.getKey(), line.getValue());
+                }
+                throw e;
+            }
+            countSale(reservation.getQuantities());
+            return markStockApplied(tx, log);
+        } finally {
+            journal.unlock();
+        }
+    }
+
+    /**
+     * Applies the stock deltas of an interrupted checkout that never reached
+     * the journal, tagged like commitCheckout(), then marks the checkout's
+     * stock as applied. Used by checkout recovery at startup
+     *
+     * @param deltas product ID --> change in stock still missing
+     * @param tx checkout number
+     * @param log log holding the checkout
+     * @return true if the S marker was written
+     * @throws IOException if the stock could not be written
+     */
+    synchronized boolean recoverCheckoutStock(Map<Integer, Integer> deltas, long tx, CheckoutLog log) throws IOException {
+        journal.lock();
+        try {
+            if (!deltas.isEmpty()) {
+                adjustStock(deltas, Collections.emptyMap(), tx);
+            }
+            return markStockApplied(tx, log);
+        } finally {
+            journal.unlock();
+        }
+    }
+
+    /**
+     * Returns the checkouts whose tagged stock records are in the journal,
+     * see {@link ProductJournal#checkoutTags()}
+     *
+     * @return checkout number --> IDs of the products it has records for
+     * @throws IOException
+     */
+    Map<Long, Set<Integer>> journaledCheckouts() throws IOException {
+        return journal.checkoutTags();
+    }
+
+    // Writes a checkout's S marker, false (and the error printed) if it could not be written
+    private static boolean markStockApplied(long tx, CheckoutLog log) {
+        try {
+            log.stockApplied(tx);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace(); // the stock is applied, the caller writes the marker again later
+            return false;
+        }
+    }
+
+    // Counts a sale towards autocomplete popularity, picked up by the completer thread
+    private void countSale(Map<Integer, Integer> quantities) {
+        for (Map.Entry<Integer, Integer> line : quantities.entrySet()) {
+            unitsSold.merge(line.getKey(), line.getValue(), Integer::sum);
+        }
+        refreshCompleter();
+    }
+
+    /**
+     * Returns a reservation's units to the available stock. Does nothing if
+     * the reservation was already committed or released
+     *
+     * @param reservation reservation from reserveStock
+     */
+    public void releaseReservation(StockReservation reservation) {
+        if (reservation.close()) {
+            for (Map.Entry<Integer, Integer> line : reservation.getQuantities().entrySet()) {
+                stockLedger.add(line.getKey(), line.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns the stock of a product that is not held by an open reservation
+     *
+     * @param productId product ID
+     * @return units available to reserve, 0 for an unknown product
+     */
+    public int getAvailableStock(int productId) {
+        return stockLedger.available(productId);
+    }
+
+    public boolean validateProductByName(String name) throws IOException {
+        return getProductByName(name) != null;
+    }
+
+    public boolean validateProductByID(String idStr) throws IOException {
+        int id = Integer.parseInt(idStr);
+        return snapshot.byId(id) != null;
+    }
+
+    /**
+     * Returns the comparator for a displayProducts sort option, or null for
+     * "no sorting". Compares the primitive fields directly
+     *
+     * @param sortValue 1 name, 2 category, 3/4 price low/high, 5/6 stock
+     * low/high
+     * @return comparator for the option
+     */
+    private static Comparator<Product> sortOrder(int sortValue) {
         switch (sortValue) {
             case 1: //sort by name
-                products.sort((a, b) -> a.getName().compareToIgnoreCase(b.getName()));
-                break;
+                return (a, b) -> a.getName().compareToIgnoreCase(b.getName());
             case 2: //sort by category
-                products.sort((a, b) -> a.getCategory().compareToIgnoreCase(b.getCategory()));
-                break;
+                return (a, b) -> a.getCategory().compareToIgnoreCase(b.getCategory());
             case 3: //sort by price low to high
-                products.sort((a, b) -> Double.compare(Double.parseDouble(a.getPrice() + ""), Double.parseDouble(b.getPrice() + "")));
-                break;
+                return (a, b) -> Double.compare(a.getPrice(), b.getPrice());
             case 4: //sort by price high to low
-                products.sort((a, b) -> Double.compare(Double.parseDouble(b.getPrice() + ""), Double.parseDouble(a.getPrice() + "")));
-                break;
+                return (a, b) -> Double.compare(b.getPrice(), a.getPrice());
             case 5: //sort by stock low to high
-                products.sort((a, b) -> Integer.compare(Integer.parseInt(a.getAvailableStock() + ""), Integer.parseInt(b.getAvailableStock() + "")));
-                break;
+                return (a, b) -> Integer.compare(a.getAvailableStock(), b.getAvailableStock());
             case 6: //sort by stock high to low
-                products.sort((a, b) -> Integer.compare(Integer.parseInt(b.getAvailableStock() + ""), Integer.parseInt(a.getAvailableStock() + "")));
-                break;
+                return (a, b) -> Integer.compare(b.getAvailableStock(), a.getAvailableStock());
             default:
-                //no sorting
-                break;
+                return null; //no sorting
         }
-        // Build one line per product using labeled fields 
-        for (Product product : products) {
-            productList.append("Name: ").append(product.getName())
-                    .append(" | Category: ").append(product.getCategory())
-                    .append(" | Price: $").append(String.format("%.2f", product.getPrice())); //format price to 2 decimal places
-
-            if (isAdmin) {
-                productList.append(" | ID: ").append(product.getId())
-                        .append(" | Stock: ").append(product.getAvailableStock());
-            } else if (product.getAvailableStock() > 10) {
-                productList.append(" | In Stock");
-            } else if (product.getAvailableStock() > 0) {
-                productList.append(" | Low Stock");
-            } else {
-                productList.append(" | Out of Stock");
-            }
-            productList.append("\n");
+    }
+
+    /**
+     * Returns an immutable, sorted copy of a catalog snapshot for a sort
+     * option. Views are built on first use and cached in the snapshot, so
+     * they are reused until the next catalog change; the products list itself
+     * is never reordered, so the CSV keeps its order
+     *
+     * @param catalog snapshot to sort
+     * @param sortValue sort option, see {@link #sortOrder(int)}
+     * @return sorted read-only product list
+     */
+    private static List<Product> sortedView(CatalogSnapshot catalog, int sortValue) {
+        Comparator<Product> order = sortOrder(sortValue);
+        if (order == null) {
+            return catalog.products(); // catalog order
         }
+        return catalog.sortedView(sortValue, order);
+    }
+
+    /**
+     * Returns a human-readable string listing all products in the system
+     * formatted for display in GUI
+     *
+     * @return
+     * @throws IOException
+     */
+    public String displayProducts(int sortValue, boolean isAdmin) throws IOException {
+        StringBuilder productList = new StringBuilder();
+        writeProducts(sortValue, 0, Integer.MAX_VALUE, isAdmin, productList);
         return productList.toString();
     }
+
+    // Returns how many products are in the catalog, used by the UIs for paging
+    public int getProductCount() {
+        return snapshot.size();
+    }
+
+    /**
+     * Returns one page of the catalog in the given sort order
+     *
+     * @param sortValue sort option, same values as displayProducts
+     * @param offset index of the first product to return
+     * @param limit maximum number of products to return
+     * @return read-only page of products, empty if offset is past the end
+     */
+    public List<Product> getProducts(int sortValue, int offset, int limit) {
+        if (offset <= 0) {
+            return getTopProducts(sortValue, limit); // first screen, no full sort needed
+        }
+        List<Product> view = sortedView(snapshot, sortValue);
+        int from = Math.max(0, Math.min(offset, view.size()));
+        int to = (int) Math.min((long) from + Math.max(0, limit), view.size());
+        return view.subList(from, to);
+    }
+
+    /**
+     * Returns the first n products in a sort order, e.g. the 50 cheapest.
+     * Uses the cached sorted view if there is one; otherwise keeps the best n
+     * in a bounded heap, which costs O(total log n) instead of sorting the
+     * whole catalog. Ties keep catalog order, same as the full sort
+     *
+     * @param sortValue sort option, same values as displayProducts
+     * @param n number of products wanted
+     * @return read-only list of at most n products
+     */
+    public List<Product> getTopProducts(int sortValue, int n) {
+        CatalogSnapshot catalog = snapshot;
+        List<Product> products = catalog.products();
+        Comparator<Product> order = sortOrder(sortValue);
+        int count = Math.max(0, Math.min(n, products.size()));
+        if (order == null || catalog.hasSortedView(sortValue) || count == products.size()) {
+            return sortedView(catalog, sortValue).subList(0, count);
+        }
+
+        // Max-heap of catalog positions, the worst of the best n on top
+        PriorityQueue<Integer> best = new PriorityQueue<>(Math.max(1, count), (a, b) -> {
+            int c = order.compare(products.get(b), products.get(a));
+            return c != 0 ? c : Integer.compare(b, a); // later position loses a tie
+        });
+        for (int i = 0; i < products.size() && count > 0; i++) {
+            if (best.size() < count) {
+                best.add(i);
+            } else if (order.compare(products.get(i), products.get(best.peek())) < 0) {
+                best.poll();
+                best.add(i);
+            }
+        }
+
+        Product[] top = new Product[best.size()];
+        for (int k = top.length - 1; k >= 0; k--) {
+            top[k] = products.get(best.poll());
+        }
+        return Collections.unmodifiableList(Arrays.asList(top));
+    }
+
+    /**
+     * Streams one page of the catalog, formatted the same way as
+     * displayProducts, to out. Lets the UI render only the rows it shows
+     * instead of building the whole catalog as one String
+     *
+     * @param sortValue sort option, same values as displayProducts
+     * @param offset index of the first product to write
+     * @param limit maximum number of products to write
+     * @param isAdmin whether to include admin-only fields (ID, stock)
+     * @param out destination for the formatted rows
+     * @return number of products written
+     * @throws IOException if out cannot be written to
+     */
+    public int writeProducts(int sortValue, int offset, int limit, boolean isAdmin, Appendable out) throws IOException {
+        List<Product> page = getProducts(sortValue, offset, limit);
+        for (Product product : page) {
+            appendProductLine(out, product, isAdmin);
+        }
+        return page.size();
+    }
+
+    /**
+     * Appends one product as a labeled display line
+     *
+     * @param out destination
+     * @param product product to format
+     * @param isAdmin whether to include admin-only fields (ID, stock)
+     * @throws IOException if out cannot be written to
+     */
+    private static void appendProductLine(Appendable out, Product product, boolean isAdmin) throws IOException {
+        out.append("Name: ").append(product.getName())
+                .append(" | Category: ").append(product.getCategory())
+                .append(" | Price: $");
+        appendPrice(out, product.getPrice());
+
+        if (isAdmin) {
+            out.append(" | ID: ").append(product.getId())
+                    .append(" | Stock: ").append(String.valueOf(product.getAvailableStock()));
+        } else {
+            out.append(" | ").append(StockState.of(product.getAvailableStock()).getLabel());
+        }
+        out.append('\n');
+    }
+
+    /**
+     * Appends a price with two decimal places, exactly like
+     * String.format("%.2f") (half up, "-0.00" for small negatives) but
+     * without a Formatter per row
+     *
+     * @param out destination
+     * @param price price to format
+     * @throws IOException if out cannot be written to
+     */
+    private static void appendPrice(Appendable out, double price) throws IOException {
+        if (Double.isNaN(price) || Double.isInfinite(price)) {
+            out.append(String.format("%.2f", price));
+            return;
+        }
+        if (Math.copySign(1.0, price) < 0) {
+            out.append('-'); // %.2f keeps the sign even when the value rounds to zero
+            price = -price;
+        }
+        out.append(BigDecimal.valueOf(price).setScale(2, RoundingMode.HALF_UP).toPlainString());
+    }
 }
@@ -0,0 +1,83 @@
+package ecommerce.service;
+
+import ecommerce.model.Product;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * RangeIndex keeps products sorted by one numeric field (price or stock) so
+ * range questions like "price between X and Y" or "stock below N" only visit
+ * the products in the range. Products with equal values are ordered by ID.
+ *
+ * @param <K> type of the indexed field
+ */
+class RangeIndex<K extends Comparable<K>> {
+
+    // field value --> products with that value, keyed by product ID
+    private final TreeMap<K, TreeMap<Integer, Product>> entries = new TreeMap<>();
+
+    /**
+     * Adds a product under a value
+     *
+     * @param key field value of the product
+     * @param id product ID
+     * @param product product to add
+     */
+    void add(K key, int id, Product product) {
+        entries.computeIfAbsent(key, k -> new TreeMap<>()).put(id, product);
+    }
+
+    /**
+     * Lists the products whose value lies in a range
+     *
+     * @param from lower bound, or null for no lower bound
+     * @param fromInclusive whether the lower bound itself is included
+     * @param to upper bound, or null for no upper bound
+     * @param toInclusive whether the upper bound itself is included
+     * @return matching products ordered by value, then ID
+     */
+    List<Product> range(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        ArrayList<Product> result = new ArrayList<>();
+        for (TreeMap<Integer, Product> products : entries(from, fromInclusive, to, toInclusive).values()) {
+            result.addAll(products.values());
+        }
+        return result;
+    }
+
+    /**
+     * Sets the bit of every product ID whose value lies in a range, without
+     * building a list of the products
+     *
+     * @param from lower bound, or null for no lower bound
+     * @param fromInclusive whether the lower bound itself is included
+     * @param to upper bound, or null for no upper bound
+     * @param toInclusive whether the upper bound itself is included
+     * @param bits bitset the IDs are added to
+     */
+    void collectIds(K from, boolean fromInclusive, K to, boolean toInclusive, BitSet bits) {
+        for (TreeMap<Integer, Product> products : entries(from, fromInclusive, to, toInclusive).values()) {
+            for (int id : products.keySet()) {
+                bits.set(id);
+            }
+        }
+    }
+
+    // The part of the index between two bounds, empty if the bounds are reversed
+    private NavigableMap<K, TreeMap<Integer, Product>> entries(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        if (from != null && to != null && from.compareTo(to) > 0) {
+            return Collections.emptyNavigableMap(); // empty range
+        }
+        NavigableMap<K, TreeMap<Integer, Product>> range = entries;
+        if (from != null) {
+            range = range.tailMap(from, fromInclusive);
+        }
+        if (to != null) {
+            range = range.headMap(to, toInclusive);
+        }
+        return range;
+    }
+}
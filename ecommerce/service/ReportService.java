@@ -26,43 +26,13 @@ public class ReportService {
      */
     public String reportOutOfStock() {
         try {
-            // Maps to store product information loaded from CSV
-            Map<String, String> idToName = new HashMap<>();   // product ID -> product name
-            Map<String, Integer> idToStock = new HashMap<>(); // product ID -> stock quantity
-
             File f = new File(PRODUCTS_CSV);
             if (!f.exists()) {
                 return header("Out-of-Stock Report") + "Products file not found: " + PRODUCTS_CSV + "\n";
             }
 
-            // Parse products.csv and extract ID, name, and stock for each product
-            Scanner scanby = new Scanner(f);
-            if (scanby.hasNextLine()) {
-                scanby.nextLine(); // skip CSV header row
-            }
-            while (scanby.hasNextLine()) {
-                String line = scanby.nextLine().trim();
-                if (line.isEmpty()) {
-                    continue;
-                }
-                String[] parts = line.split(",");
-
-                // CSV format: id, name, category, price, stock
-                if (parts.length < 5) {
-                    continue;
-                }
-                String id = parts[0].trim();
-                String name = parts[1].trim();
-                String stockStr = parts[4].trim();
-                int stock = 0;
-                try {
-                    stock = Integer.parseInt(stockStr);
-                } catch (NumberFormatException ignored) {
-                }
-                idToName.put(id, name);
-                idToStock.put(id, stock);
-            }
-            scanby.close();
+            // Load the catalog as columns (journaled edits included), the scan only reads stock
+            ColumnarProductStore store = ProductService.loadColumnarStore();
 
             // Build report output with header and product listings
             StringBuilder out = new StringBuilder();
@@ -70,11 +40,11 @@ public class ReportService {
             boolean any = false;
 
             // Iterate through all products and flag those with zero or negative stock
-            for (Map.Entry<String, Integer> e : idToStock.entrySet()) {
-                if (e.getValue() <= 0) {
+            for (int row = 0; row < store.size(); row++) {
+                if (store.stock(row) <= 0) {
                     any = true;
-                    out.append("ID: ").append(e.getKey()).append(" | ")
-                            .append(idToName.getOrDefault(e.getKey(), "<unknown>")).append("\n");
+                    out.append("ID: ").append(store.id(row)).append(" | ")
+                            .append(store.name(row)).append("\n");
                 }
             }
             // If no out-of-stock items found, display a positive message
@@ -98,27 +68,20 @@ public class ReportService {
             if (!f.exists()) {
                 return header("Total Orders Report") + "Orders file not found: " + ORDERS_CSV + "\n";
             }
-            Scanner scanby = new Scanner(f);
+            CsvReader reader = new CsvReader(f);
             int totalOrders = 0;
-            if (scanby.hasNextLine()) {
-                scanby.nextLine(); // skip CSV header row
-            }
-            // Parse each order line and increment counter
-            while (scanby.hasNextLine()) {
-                String line = scanby.nextLine().trim();
-                if (line.isEmpty()) {
-                    continue;
-                }
-                String[] parts = line.split(",");
+            reader.next(); // skip CSV header row
 
+            // Parse each order line (blank lines are skipped) and increment counter
+            while (reader.next()) {
                 // CSV format: order id, customer id, total price, timestamp, status
-                if (parts.length < 3) {
+                if (reader.fieldCount() < 3) {
                     continue; // skip malformed lines
 
                 }
                 totalOrders++;
             }
-            scanby.close();
+            reader.close();
             StringBuilder out = new StringBuilder();
             out.append(header("Total Orders Report"));
             out.append("Total Orders: ").append(totalOrders).append("\n");
@@ -142,66 +105,46 @@ public class ReportService {
                         + ORDER_PRODUCTS_CSV + "\n";
             }
 
-            // First pass: load product id -> name mapping from products.csv for display purposes
-            Map<String, String> idToName = new HashMap<>();
-            File pf = new File(PRODUCTS_CSV);
-            if (pf.exists()) {
-                Scanner scanman = new Scanner(pf);
-                if (scanman.hasNextLine()) {
-                    scanman.nextLine();
-                }
-                while (scanman.hasNextLine()) {
-                    String line = scanman.nextLine().trim();
-                    if (line.isEmpty()) {
-                        continue;
-                    }
-                    String[] parts = line.split(",");
-                    if (parts.length < 2) {
-                        continue;
-                    }
-                    idToName.put(parts[0].trim(), parts[1].trim());
-                }
-                scanman.close();
+            // First pass: load products for id -> name lookups (includes journaled edits)
+            ColumnarProductStore store = null;
+            if (new File(PRODUCTS_CSV).exists()) {
+                store = ProductService.loadColumnarStore();
             }
 
             // Second pass: aggregate product quantities from order-products file across all orders
-            Scanner scanby = new Scanner(f);
-            if (scanby.hasNextLine()) {
-                scanby.nextLine(); // skip CSV header row
-
-            }
-            Map<String, Integer> productCounts = new HashMap<>(); // product ID -> total units ordered
-            while (scanby.hasNextLine()) {
-                String line = scanby.nextLine().trim();
-                if (line.isEmpty()) {
-                    continue;
-                }
+            CsvReader reader = new CsvReader(f);
+            reader.next(); // skip CSV header row
 
+            Map<Integer, Integer> productCounts = new HashMap<>(); // product ID -> total units ordered
+            while (reader.next()) {
                 // CSV format: order id, product id1, quantity1, product id2, quantity2
                 // Each order can contain multiple products with their respective quantities
-                String[] parts = line.split(",");
-                if (parts.length < 3) {
+                if (reader.fieldCount() < 3) {
                     continue; // skip lines without at least one product
                 }
-                
+
                 // Parse pairs of (product id, quantity) starting from index 1
-                for (int i = 1; i + 1 < parts.length; i += 2) {
-                    String pid = parts[i].trim();
-                    String qtyStr = parts[i + 1].trim();
+                for (int i = 1; i + 1 < reader.fieldCount(); i += 2) {
+                    int pid;
+                    try {
+                        pid = reader.intField(i);
+                    } catch (NumberFormatException ignored) {
+                        continue; // skip pairs with a malformed product ID
+                    }
                     int qty = 0;
                     try {
-                        qty = Integer.parseInt(qtyStr);
+                        qty = reader.intField(i + 1);
                     } catch (NumberFormatException ignored) {
                     }
 
                     // Accumulate quantities for each product across all orders
-                    productCounts.put(pid, productCounts.getOrDefault(pid, 0) + qty);
+                    productCounts.merge(pid, qty, Integer::sum);
                 }
             }
-            scanby.close();
+            reader.close();
 
             // Sort products by total quantity in descending order to identify top sellers
-            List<Map.Entry<String, Integer>> list = new ArrayList<>(productCounts.entrySet());
+            List<Map.Entry<Integer, Integer>> list = new ArrayList<>(productCounts.entrySet());
             list.sort((a, b) -> Integer.compare(b.getValue(), a.getValue()));
 
             StringBuilder out = new StringBuilder();
@@ -215,8 +158,9 @@ public class ReportService {
 
             // Display top 10 products by units ordered to avoid clutter
             int rank = 1;
-            for (Map.Entry<String, Integer> e : list) {
-                String name = idToName.getOrDefault(e.getKey(), "Product ID " + e.getKey());
+            for (Map.Entry<Integer, Integer> e : list) {
+                int row = store == null ? -1 : store.findRow(e.getKey());
+                String name = row >= 0 ? store.name(row) : "Product ID " + e.getKey();
                 out.append(rank).append(". ").append(name).append(" - ").append(e.getValue()).append(" units\n");
                 rank++;
                 if (rank > 10) {
@@ -244,33 +188,24 @@ public class ReportService {
             if (!f.exists()) {
                 return header("Total Revenue Report") + "Orders file not found: " + ORDERS_CSV + "\n";
             }
-            Scanner scanman = new Scanner(f);
-            if (scanman.hasNextLine()) {
-                scanman.nextLine(); // skip CSV header row
-
-            }
+            CsvReader reader = new CsvReader(f);
+            reader.next(); // skip CSV header row
             double totalRevenue = 0.0; // accumulated revenue across all orders
 
             // Parse each order and sum the total price values
-            while (scanman.hasNextLine()) {
-                String line = scanman.nextLine().trim();
-                if (line.isEmpty()) {
-                    continue;
-                }
-                String[] parts = line.split(",");
-
+            while (reader.next()) {
                 // CSV format: order id, customer id, total price, timestamp, status
-                if (parts.length < 3) {
+                if (reader.fieldCount() < 3) {
                     continue; // skip malformed lines
 
                 }
                 try {
                     // The total price is in the 3rd column (index 2)
-                    totalRevenue += Double.parseDouble(parts[2].trim());
+                    totalRevenue += reader.doubleField(2);
                 } catch (NumberFormatException ignored) {
                 }
             }
-            scanman.close();
+            reader.close();
             StringBuilder out = new StringBuilder();
             out.append(header("Total Revenue Report"));
 
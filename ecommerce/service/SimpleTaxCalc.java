@@ -3,8 +3,8 @@ package ecommerce.service;
 import ecommerce.model.Address;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.Scanner;
 
 /**
  * SimpleTaxCalc provides basic sales tax calculation based on U.S. state rates
@@ -20,22 +20,24 @@ public class SimpleTaxCalc {
      * Constructs a SimpleTaxCalc and loads state tax rates from CSV file
      *
      * @throws FileNotFoundException if the tax rates file cannot be found
+     * @throws IOException if the tax rates file cannot be read
      */
-    public SimpleTaxCalc() throws FileNotFoundException {
+    public SimpleTaxCalc() throws IOException {
         stateTaxRates = new HashMap<>();
         File file = new File("ecommerce/data/state_tax_rates.csv");
         //data in csv from https://taxfoundation.org/data/all/state/sales-tax-rates/
-        Scanner fileReader = new Scanner(file);
+        if (!file.exists()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        CsvReader fileReader = new CsvReader(file);
 
-        fileReader.nextLine(); //skip header
+        fileReader.next(); //skip header
 
         //parse each line into state --> rate entry
-        while (fileReader.hasNextLine()) {
-            String line = fileReader.nextLine();
-            String[] parts = line.split(",");
-            String state = parts[0];
-            String stateCode = parts[1];
-            double rate = Double.parseDouble(parts[2]);
+        while (fileReader.next()) {
+            String state = fileReader.field(0);
+            String stateCode = fileReader.field(1);
+            double rate = fileReader.doubleField(2);
             stateTaxRates.put(state, rate);
             stateTaxRates.put(stateCode, rate);
         }
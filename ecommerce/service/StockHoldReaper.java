@@ -0,0 +1,93 @@
+package ecommerce.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StockHoldReaper gives the stock of expired cart holds back to the
+ * StockLedger. Holds wait in a DelayQueue ordered by expiry time, so the
+ * reaper thread sleeps until the next hold is due instead of scanning carts.
+ * Every hold that is due when it wakes up is released in one batch, with one
+ * counter update per product.
+ */
+class StockHoldReaper {
+
+    private final StockLedger ledger;
+
+    // Holds waiting to expire, the head is the next one due
+    private final DelayQueue<Expiry> expiries = new DelayQueue<>();
+
+    // Started on the first scheduled hold
+    private Thread thread;
+
+    StockHoldReaper(StockLedger ledger) {
+        this.ledger = ledger;
+    }
+
+    /**
+     * Releases a hold after a delay unless it is committed or released first
+     *
+     * @param hold reservation to expire
+     * @param ttlMillis time to live in milliseconds
+     */
+    synchronized void schedule(StockReservation hold, long ttlMillis) {
+        expiries.add(new Expiry(hold, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ttlMillis)));
+        if (thread == null) {
+            thread = new Thread(this::run, "stock-hold-reaper");
+            thread.setDaemon(true); // never keeps the app alive on exit
+            thread.start();
+        }
+    }
+
+    private void run() {
+        ArrayList<Expiry> due = new ArrayList<>();
+        while (true) {
+            try {
+                due.add(expiries.take()); // waits for the next expiry
+            } catch (InterruptedException e) {
+                return;
+            }
+            expiries.drainTo(due); // everything else that is due too
+
+            // Sum the units per product, skipping holds already committed or released
+            Map<Integer, Integer> returned = new HashMap<>();
+            for (Expiry expiry : due) {
+                if (expiry.hold.close()) {
+                    for (Map.Entry<Integer, Integer> line : expiry.hold.getQuantities().entrySet()) {
+                        returned.merge(line.getKey(), line.getValue(), Integer::sum);
+                    }
+                }
+            }
+            for (Map.Entry<Integer, Integer> line : returned.entrySet()) {
+                ledger.add(line.getKey(), line.getValue());
+            }
+            due.clear();
+        }
+    }
+
+    // A hold and the System.nanoTime() at which it expires
+    private static class Expiry implements Delayed {
+
+        private final StockReservation hold;
+        private final long deadline;
+
+        Expiry(StockReservation hold, long deadline) {
+            this.hold = hold;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(deadline, ((Expiry) other).deadline);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package ecommerce.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * StockLedger keeps one atomic counter per product holding the stock that is
+ * still free to reserve: the catalog stock minus every open reservation.
+ *
+ * Reservations take stock with a compare-and-set loop on that product's
+ * counter only, so checkouts of different products never contend and two
+ * checkouts of the same product can never both take the last unit. No lock
+ * is held while reserving or releasing.
+ */
+class StockLedger {
+
+    // product ID --> stock available to reserve
+    private final ConcurrentHashMap<Integer, AtomicInteger> available = new ConcurrentHashMap<>();
+
+    /**
+     * Takes stock from a product if enough is available
+     *
+     * @param productId product ID
+     * @param quantity units to take, must be positive
+     * @return false if the product is unknown or has fewer units available
+     */
+    boolean reserve(int productId, int quantity) {
+        AtomicInteger counter = available.get(productId);
+        if (counter == null) {
+            return false;
+        }
+        while (true) {
+            int current = counter.get();
+            if (current < quantity) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current - quantity)) {
+                return true;
+            }
+            // another checkout changed the counter first, retry with its value
+        }
+    }
+
+    /**
+     * Adds to (or with a negative delta, removes from) a product's available
+     * stock. Used to return released units and to follow catalog changes
+     *
+     * @param productId product ID
+     * @param delta change in available units
+     */
+    void add(int productId, int delta) {
+        available.computeIfAbsent(productId, id -> new AtomicInteger()).addAndGet(delta);
+    }
+
+    // Returns the units of a product still free to reserve, 0 if unknown
+    int available(int productId) {
+        AtomicInteger counter = available.get(productId);
+        return counter == null ? 0 : Math.max(0, counter.get());
+    }
+
+    // Forgets every counter
+    void clear() {
+        available.clear();
+    }
+}
@@ -0,0 +1,43 @@
+package ecommerce.service;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A StockReservation is stock set aside for one checkout by
+ * {@link ProductService#reserveStock(Map)}. The units stay unavailable to
+ * every other checkout until the reservation is either committed (the stock
+ * decrement is persisted) or released (the units go back).
+ *
+ * A reservation can be committed or released once; whichever happens first
+ * wins.
+ */
+public final class StockReservation {
+
+    // product ID --> units reserved
+    private final Map<Integer, Integer> quantities;
+
+    // Cleared once the reservation is committed or released
+    private final AtomicBoolean open = new AtomicBoolean(true);
+
+    StockReservation(Map<Integer, Integer> quantities) {
+        this.quantities = Collections.unmodifiableMap(new TreeMap<>(quantities));
+    }
+
+    // Returns the reserved units per product ID
+    public Map<Integer, Integer> getQuantities() {
+        return quantities;
+    }
+
+    // Returns true until the reservation is committed or released
+    public boolean isOpen() {
+        return open.get();
+    }
+
+    // Marks the reservation as finished, false if it already was
+    boolean close() {
+        return open.compareAndSet(true, false);
+    }
+}
@@ -0,0 +1,385 @@
+package ecommerce.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+
+/**
+ * TrigramIndex is an inverted index from every 3-character substring
+ * (trigram) of a product name to the IDs of the products containing it.
+ *
+ * A substring search only has to check products that contain every trigram
+ * of the query, instead of lower-casing and scanning every product name.
+ * Lower-cased names are stored once here so queries never allocate per
+ * product.
+ */
+class TrigramIndex {
+
+    // trigram (packed into a long) --> IDs of products whose name contains it
+    private final HashMap<Long, Postings> postings = new HashMap<>();
+
+    // product ID --> lower-cased product name
+    private final HashMap<Integer, String> names = new HashMap<>();
+
+    /**
+     * Indexes a product name. Re-adding an ID replaces its previous name
+     *
+     * @param id product ID
+     * @param name product name
+     */
+    void add(int id, String name) {
+        remove(id);
+        String lower = name.toLowerCase(Locale.ROOT);
+        names.put(id, lower);
+        for (int i = 0; i + 3 <= lower.length(); i++) {
+            postings.computeIfAbsent(trigram(lower, i), k -> new Postings()).add(id);
+        }
+    }
+
+    /**
+     * Removes a product from the index
+     *
+     * @param id product ID
+     */
+    void remove(int id) {
+        String lower = names.remove(id);
+        if (lower == null) {
+            return;
+        }
+        for (int i = 0; i + 3 <= lower.length(); i++) {
+            Long key = trigram(lower, i);
+            Postings ids = postings.get(key);
+            if (ids != null && ids.remove(id) && ids.size == 0) {
+                postings.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Returns the lower-cased name indexed for a product
+     *
+     * @param id product ID
+     * @return lower-cased name, null if the ID is not indexed
+     */
+    String name(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * Finds every product whose name contains the query (case-insensitive),
+     * best matches first: exact name, then names starting with the query,
+     * then names with a word starting with the query, then any other match.
+     * Ties go to the earlier match position, then the shorter name.
+     *
+     * @param query search string
+     * @return matching product IDs, ranked
+     */
+    List<Integer> search(String query) {
+        String q = query.trim().toLowerCase(Locale.ROOT);
+        ArrayList<Integer> matches = new ArrayList<>();
+        find(q, matches::add);
+        matches.sort(Comparator.comparing(names::get, searchOrder(q)));
+        return matches;
+    }
+
+    /**
+     * The ranking used by search(), for lower-cased names that contain the
+     * query. Lets results from several indexes be merged in the same order
+     *
+     * @param q trimmed, lower-cased query
+     * @return comparator over lower-cased names, best match first
+     */
+    static Comparator<String> searchOrder(String q) {
+        return Comparator.comparingInt((String name) -> rank(name, q))
+                .thenComparingInt(name -> name.indexOf(q))
+                .thenComparingInt(String::length)
+                .thenComparing(Comparator.naturalOrder());
+    }
+
+    /**
+     * Sets the bit of every product whose name contains the query
+     * (case-insensitive). Cheaper than search() when the ranking is not
+     * needed, and no list of IDs is built
+     *
+     * @param query search string
+     * @param bits bitset the matching IDs are added to
+     */
+    void collectMatches(String query, BitSet bits) {
+        find(query.trim().toLowerCase(Locale.ROOT), bits::set);
+    }
+
+    // Hands every match of a trimmed, lower-cased query to the consumer, unranked
+    private void find(String q, IntConsumer matches) {
+        if (q.isEmpty()) {
+            return;
+        }
+
+        if (q.length() < 3) {
+            // Too short to have a trigram, check the stored names directly
+            for (Integer id : names.keySet()) {
+                if (names.get(id).contains(q)) {
+                    matches.accept(id);
+                }
+            }
+        } else {
+            // Collect the posting list of every trigram in the query
+            ArrayList<Postings> lists = new ArrayList<>();
+            for (int i = 0; i + 3 <= q.length(); i++) {
+                Postings ids = postings.get(trigram(q, i));
+                if (ids == null) {
+                    return; // some trigram appears in no name at all
+                }
+                lists.add(ids);
+            }
+
+            // Walk the shortest list and keep IDs present in all the others
+            lists.sort(Comparator.comparingInt(ids -> ids.size));
+            Postings smallest = lists.get(0);
+            for (int k = 0; k < smallest.size; k++) {
+                int id = smallest.ids[k];
+                boolean inAll = true;
+                for (int i = 1; i < lists.size() && inAll; i++) {
+                    inAll = lists.get(i).contains(id);
+                }
+                // Trigrams can all appear without being adjacent, so confirm the match
+                if (inAll && names.get(id).contains(q)) {
+                    matches.accept(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the names closest to a possibly misspelled query. Candidates are
+     * the products sharing the most trigrams with the query, counted by
+     * merging the sorted posting lists (not a scan of every name); only
+     * those get an edit distance computed. A name matches if some part of it is within a few
+     * typos of the query, so "wirless" finds "Wireless Mouse"
+     *
+     * @param query search string, at least 3 characters
+     * @param k maximum number of results
+     * @return product IDs, closest first
+     */
+    List<Integer> similar(String query, int k) {
+        String q = query.trim().toLowerCase(Locale.ROOT);
+        ArrayList<Integer> result = new ArrayList<>();
+        if (q.length() < 3 || k <= 0) {
+            return result;
+        }
+
+        // Posting lists of the query's trigrams, one per occurrence like the count below
+        ArrayList<Postings> found = new ArrayList<>();
+        for (int i = 0; i + 3 <= q.length(); i++) {
+            Postings ids = postings.get(trigram(q, i));
+            if (ids != null) {
+                found.add(ids);
+            }
+        }
+        Postings[] lists = found.toArray(new Postings[0]);
+
+        // First merge of the sorted lists: how many products share each number of trigrams
+        int[] withShared = new int[lists.length + 1];
+        int[] cursors = new int[lists.length];
+        for (long next = mergeNext(lists, cursors); next >= 0; next = mergeNext(lists, cursors)) {
+            withShared[(int) next]++;
+        }
+
+        // Only the best-overlapping candidates are worth an edit distance. Find the
+        // lowest overlap that still makes the cut, ties there go to the lower ID
+        int limit = Math.max(50, k * 10);
+        int cutoff = lists.length;
+        int above = 0;
+        while (cutoff > 1 && above + withShared[cutoff] < limit) {
+            above += withShared[cutoff];
+            cutoff--;
+        }
+        int[] candidates = new int[Math.min(limit, above + withShared[cutoff])];
+        int[] candidateShared = new int[candidates.length];
+        int count = 0;
+        int atCutoff = candidates.length - above;
+        Arrays.fill(cursors, 0);
+        for (long next = mergeNext(lists, cursors); next >= 0; next = mergeNext(lists, cursors)) {
+            int overlap = (int) next;
+            if (overlap > cutoff || (overlap == cutoff && atCutoff-- > 0)) {
+                candidates[count] = (int) (next >>> 32);
+                candidateShared[count] = overlap;
+                count++;
+            }
+        }
+
+        int maxTypos = Math.max(1, q.length() / 3);
+        int[] distances = new int[count];
+        ArrayList<Integer> close = new ArrayList<>(); // positions in candidates
+        for (int i = 0; i < count; i++) {
+            distances[i] = substringDistance(q, names.get(candidates[i]));
+            if (distances[i] <= maxTypos) {
+                close.add(i);
+            }
+        }
+        close.sort(Comparator.comparingInt((Integer i) -> distances[i])
+                .thenComparingInt(i -> -candidateShared[i])
+                .thenComparingInt(i -> names.get(candidates[i]).length())
+                .thenComparing(i -> names.get(candidates[i])));
+        for (int i = 0; i < close.size() && i < k; i++) {
+            result.add(candidates[close.get(i)]);
+        }
+        return result;
+    }
+
+    /**
+     * Checks a name the way similar() checks its candidates
+     *
+     * @param q trimmed, lower-cased query, at least 3 characters
+     * @param name lower-cased name
+     * @return true if some part of the name is within the typo limit
+     */
+    static boolean isSimilar(String q, String name) {
+        return substringDistance(q, name) <= Math.max(1, q.length() / 3);
+    }
+
+    /**
+     * The ranking used by similar(), for lower-cased names that passed
+     * isSimilar(). Lets results from several indexes be merged in the same
+     * order. Scores are computed once per name
+     *
+     * @param q trimmed, lower-cased query
+     * @return comparator over lower-cased names, closest first
+     */
+    static Comparator<String> similarOrder(String q) {
+        HashMap<String, int[]> scores = new HashMap<>();
+        Function<String, int[]> score = name -> scores.computeIfAbsent(name,
+                n -> new int[]{substringDistance(q, n), -sharedTrigrams(q, n)});
+        return Comparator.comparingInt((String name) -> score.apply(name)[0])
+                .thenComparingInt(name -> score.apply(name)[1])
+                .thenComparingInt(String::length)
+                .thenComparing(Comparator.naturalOrder());
+    }
+
+    // Number of the query's trigrams (one per position) found in the name, same count as the posting merge
+    private static int sharedTrigrams(String q, String name) {
+        int shared = 0;
+        for (int i = 0; i + 3 <= q.length(); i++) {
+            if (name.contains(q.substring(i, i + 3))) {
+                shared++;
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Advances a merge of sorted posting lists to the next smallest ID. Every
+     * list holding that ID moves past it
+     *
+     * @return the ID in the high 32 bits and the number of lists holding it
+     * in the low 32 bits, or -1 once every list is used up
+     */
+    private static long mergeNext(Postings[] lists, int[] cursors) {
+        int min = Integer.MAX_VALUE;
+        boolean any = false;
+        for (int i = 0; i < lists.length; i++) {
+            if (cursors[i] < lists[i].size && (!any || lists[i].ids[cursors[i]] < min)) {
+                min = lists[i].ids[cursors[i]];
+                any = true;
+            }
+        }
+        if (!any) {
+            return -1;
+        }
+        int holding = 0;
+        for (int i = 0; i < lists.length; i++) {
+            if (cursors[i] < lists[i].size && lists[i].ids[cursors[i]] == min) {
+                cursors[i]++;
+                holding++;
+            }
+        }
+        return ((long) min << 32) | holding;
+    }
+
+    /**
+     * Levenshtein distance between the query and the closest substring of the
+     * name (the name's unmatched start and end are free)
+     */
+    private static int substringDistance(String q, String name) {
+        int[] previous = new int[name.length() + 1]; // row 0 is all zeros, a match may start anywhere
+        int[] current = new int[name.length() + 1];
+        for (int i = 1; i <= q.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= name.length(); j++) {
+                int substitute = previous[j - 1] + (q.charAt(i - 1) == name.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitute, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        int best = Integer.MAX_VALUE;
+        for (int distance : previous) {
+            best = Math.min(best, distance); // a match may end anywhere
+        }
+        return best;
+    }
+
+    // Match quality tier, lower is better
+    private static int rank(String name, String q) {
+        int pos = name.indexOf(q);
+        if (pos == 0) {
+            return name.length() == q.length() ? 0 : 1; // exact name, then prefix
+        }
+        if (!Character.isLetterOrDigit(name.charAt(pos - 1))) {
+            return 2; // query starts a word
+        }
+        return 3; // match inside a word
+    }
+
+    /**
+     * Sorted, growable array of the product IDs for one trigram. Takes 4
+     * bytes per entry, so the index stays small enough for large catalogs
+     */
+    private static class Postings {
+
+        private int[] ids = new int[4];
+        private int size;
+
+        // Inserts an ID, keeping the array sorted. New (highest) IDs are appended
+        void add(int id) {
+            int pos = size > 0 && ids[size - 1] < id ? size : Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) {
+                pos = -pos - 1;
+            } else if (pos < size) {
+                return; // already present, e.g. a trigram that repeats in the name
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = id;
+            size++;
+        }
+
+        // Removes an ID, returns false if it was not present
+        boolean remove(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            size--;
+            return true;
+        }
+
+        boolean contains(int id) {
+            return Arrays.binarySearch(ids, 0, size, id) >= 0;
+        }
+    }
+
+    // Packs the three chars starting at i into one key, avoids substring allocation
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+}
@@ -29,12 +29,20 @@ public class AdminFrame extends JFrame implements ActionListener {
     private JTextArea displayArea;         // Area to display information
     private JScrollPane scrollPane;        // Scroll pane for display area
     private int filterOption;          // Current filter option
+    private boolean viewingProducts;   // True while the display area shows the product list
+    private int productsShown;         // Number of product rows loaded into the display area
+
+    // Number of product rows fetched each time the list is scrolled to the bottom
+    private static final int PRODUCT_PAGE_SIZE = 100;
     private final OrderService orderService;
     private final ReportService reportService;
 
-    public AdminFrame() throws IOException {
-        // Initialize the ProductService
-        productService = new ProductService();
+    /**
+     * @param productService the app's one ProductService, shared by every
+     * window so all sessions see the same catalog and stock reservations
+     */
+    public AdminFrame(ProductService productService) throws IOException {
+        this.productService = productService;
 
         orderService = new OrderService();
 
@@ -64,6 +72,13 @@ public class AdminFrame extends JFrame implements ActionListener {
         displayArea.setEditable(false);
         displayArea.setFont(new Font("Monospaced", Font.PLAIN, 12));
         scrollPane = new JScrollPane(displayArea);
+        // Load the next page of products when the list is scrolled near its end
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(ev -> {
+            JScrollBar bar = scrollPane.getVerticalScrollBar();
+            if (viewingProducts && bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - 20) {
+                appendNextProductsPage();
+            }
+        });
         mainPanel.add(scrollPane, BorderLayout.CENTER);
 
         // Bottom Panel: Create logout panel 
@@ -187,6 +202,7 @@ public class AdminFrame extends JFrame implements ActionListener {
      */
     @Override
     public void actionPerformed(ActionEvent e) {
+        viewingProducts = false; // handleViewProducts turns paging back on
         if (viewFiltersBtn.isVisible() && e.getSource() != viewFiltersBtn) {
             // Hide filter dropdown when not viewing products
             viewFiltersBtn.setVisible(false);
@@ -438,11 +454,35 @@ public class AdminFrame extends JFrame implements ActionListener {
      */
     private void handleViewProducts() throws IOException {
         viewFiltersBtn.setVisible(true); // Show filter dropdown when viewing products
-        String products = productService.displayProducts(filterOption, true);
         displayArea.setText("========================================\n");
         displayArea.append("CURRENT PRODUCTS\n");
         displayArea.append("========================================\n\n");
-        displayArea.append(products != null ? products : "No products available.");
+        if (productService.getProductCount() == 0) {
+            displayArea.append("No products available.");
+            return;
+        }
+        // Only the first page is rendered now, the rest loads as the list is scrolled
+        productsShown = 0;
+        viewingProducts = true;
+        appendNextProductsPage();
+        displayArea.setCaretPosition(0); // keep the view at the top while pages are appended
+    }
+
+    /**
+     * Appends the next page of products (in the current sort order) to the
+     * display area
+     */
+    private void appendNextProductsPage() {
+        if (productsShown >= productService.getProductCount()) {
+            return;
+        }
+        try {
+            StringBuilder page = new StringBuilder();
+            productsShown += productService.writeProducts(filterOption, productsShown, PRODUCT_PAGE_SIZE, true, page);
+            displayArea.append(page.toString());
+        } catch (IOException ex) {
+            showError("Error loading products: " + ex.getMessage());
+        }
     }
 
     /**
@@ -559,9 +599,9 @@ public class AdminFrame extends JFrame implements ActionListener {
                 new LoginFrame((role, username) -> {
                     try {
                         if (role == Role.ADMIN) {
-                            new AdminFrame();
+                            new AdminFrame(productService);
                         } else if (role == Role.CUSTOMER) {
-                            new UserFrame(username);
+                            new UserFrame(username, productService);
                         } else {
                             System.out.println("No role found. Exiting application.");
                         }
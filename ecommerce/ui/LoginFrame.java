@@ -7,7 +7,7 @@ import ecommerce.model.Role;
 import ecommerce.service.AuthService;
 import java.awt.*;
 import java.awt.event.*;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import javax.swing.*;
 
 public class LoginFrame extends JFrame implements ActionListener {
@@ -86,7 +86,7 @@ public class LoginFrame extends JFrame implements ActionListener {
                 dispose();
                 LoginFrame.this.dispose(); // activates startApp in EcommerceApp
             }
-        } catch (FileNotFoundException e1) {  // Only thrown if the credentials file is missing
+        } catch (IOException e1) {  // Only thrown if the credentials file is missing or unreadable
             e1.printStackTrace();
         }
     }
@@ -9,10 +9,13 @@ import ecommerce.model.Role;
 import ecommerce.service.OrderService;
 import ecommerce.service.ProductService;
 import ecommerce.service.SimpleTaxCalc;
+import ecommerce.service.StockReservation;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.IOException;
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 public class UserFrame extends JFrame implements ActionListener {
 
@@ -31,16 +34,25 @@ public class UserFrame extends JFrame implements ActionListener {
     private JTextArea displayArea;         // Area to display information
     private JScrollPane scrollPane;        // Scroll pane for display area
     private int filterOption;          // Current filter option
+    private boolean viewingProducts;   // True while the display area shows the product list
+    private int productsShown;         // Number of product rows loaded into the display area
+
+    // Number of product rows fetched each time the list is scrolled to the bottom
+    private static final int PRODUCT_PAGE_SIZE = 100;
     private final Cart cart;                     // Customer's shopping cart
     private Address address;               // Customer's address for orders
     private final SimpleTaxCalc taxCalculator; // Tax calculator based on address
     private String usernameStr;
     private final OrderService orderService;
 
-    public UserFrame(String username) throws IOException {
+    /**
+     * @param username logged-in customer
+     * @param productService the app's one ProductService, shared by every
+     * window so all sessions see the same catalog and stock reservations
+     */
+    public UserFrame(String username, ProductService productService) throws IOException {
         this.usernameStr = username;
-        // Initialize the ProductService
-        productService = new ProductService();
+        this.productService = productService;
 
         orderService = new OrderService();
 
@@ -75,6 +87,13 @@ public class UserFrame extends JFrame implements ActionListener {
         displayArea.setEditable(false);
         displayArea.setFont(new Font("Monospaced", Font.PLAIN, 12));
         scrollPane = new JScrollPane(displayArea);
+        // Load the next page of products when the list is scrolled near its end
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(ev -> {
+            JScrollBar bar = scrollPane.getVerticalScrollBar();
+            if (viewingProducts && bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - 20) {
+                appendNextProductsPage();
+            }
+        });
         mainPanel.add(scrollPane, BorderLayout.CENTER);
 
         // Bottom Panel: Create logout panel 
@@ -195,6 +214,7 @@ public class UserFrame extends JFrame implements ActionListener {
      */
     @Override
     public void actionPerformed(ActionEvent e) {
+        viewingProducts = false; // handleViewProducts turns paging back on
         if (viewFiltersBtn.isVisible() && e.getSource() != viewFiltersBtn) {
             // Hide filter dropdown when not viewing products
             viewFiltersBtn.setVisible(false);
@@ -250,6 +270,52 @@ public class UserFrame extends JFrame implements ActionListener {
         panel.add(nameLabel);
         panel.add(nameField);
 
+        // Autocomplete: suggests product names as the customer types, picking one fills the name
+        JLabel suggestionsLabel = new JLabel("Suggestions:");
+        JComboBox<String> suggestionsBox = new JComboBox<>();
+        panel.add(suggestionsLabel);
+        panel.add(suggestionsBox);
+        boolean[] updatingSuggestions = {false}; // ignore selection events while refilling the list
+        nameField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent ev) {
+                refresh();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent ev) {
+                refresh();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent ev) {
+                refresh();
+            }
+
+            private void refresh() {
+                if (updatingSuggestions[0]) {
+                    return;
+                }
+                updatingSuggestions[0] = true;
+                try {
+                    suggestionsBox.removeAllItems();
+                    for (String suggestion : productService.completeProductNames(nameField.getText(), 8)) {
+                        suggestionsBox.addItem(suggestion);
+                    }
+                    suggestionsBox.setSelectedIndex(-1);
+                } finally {
+                    updatingSuggestions[0] = false;
+                }
+            }
+        });
+        suggestionsBox.addActionListener(ev -> {
+            if (!updatingSuggestions[0] && suggestionsBox.getSelectedItem() != null) {
+                updatingSuggestions[0] = true;
+                nameField.setText((String) suggestionsBox.getSelectedItem());
+                updatingSuggestions[0] = false;
+            }
+        });
+
         JLabel quantityLabel = new JLabel("Quantity:");
         JTextField quantityField = new JTextField();
         panel.add(quantityLabel);
@@ -281,13 +347,13 @@ public class UserFrame extends JFrame implements ActionListener {
                 if (quantity <= 0) {
                     showError("Quantity must be positive integer.");
                     return;
-                } else if (quantity > productService.getProductByName(name).getAvailableStock()) {
+                }
+
+                // Hold the stock for this cart while adding the product
+                if (!cart.addWithHold(productService.getProductByName(name), quantity, productService)) {
                     showError("Requested quantity exceeds available stock.");
                     return;
                 }
-
-                // Delegate actual product creation to ProductService
-                cart.add(productService.getProductByName(name), quantity);
                 displayArea.setText("✓ Product added successfully: " + name + "\n");
                 dialog.dispose();
                 showSuccess("Product added successfully!");
@@ -357,13 +423,13 @@ public class UserFrame extends JFrame implements ActionListener {
                 if (quantity <= 0) {
                     showError("Quantity must be positive integer.");
                     return;
-                } else if (quantity > productService.getProductByName(name).getAvailableStock()) {
+                }
+
+                // Delegate update to Cart, which moves the stock hold too
+                if (!cart.setHeldQuantity(productService.getProductByName(name).getId(), quantity, productService)) {
                     showError("Requested quantity exceeds available stock.");
                     return;
                 }
-
-                // Delegate update to Cart
-                cart.setCartQuantity(productService.getProductByName(name).getId(), quantity);
                 displayArea.setText("✓ Product updated successfully: " + name + "\n");
                 dialog.dispose();
                 showSuccess("Product updated successfully!");
@@ -399,7 +465,7 @@ public class UserFrame extends JFrame implements ActionListener {
                         "Are you sure you want to delete product " + nameStr + " from cart?", "Confirm Delete",
                         JOptionPane.YES_NO_OPTION);
                 if (confirm == JOptionPane.YES_OPTION) {
-                    cart.remove(productService.getProductByName(nameStr).getId());
+                    cart.remove(productService.getProductByName(nameStr).getId(), productService);
                     displayArea.setText("✓ Product removed successfully: " + nameStr + "\n");
                     showSuccess("Product removed successfully!");
                 }
@@ -419,11 +485,35 @@ public class UserFrame extends JFrame implements ActionListener {
      */
     private void handleViewProducts() throws IOException {
         viewFiltersBtn.setVisible(true); // Show filter dropdown when viewing products
-        String products = productService.displayProducts(filterOption, false);
         displayArea.setText("========================================\n");
         displayArea.append("CURRENT PRODUCTS\n");
         displayArea.append("========================================\n\n");
-        displayArea.append(products != null ? products : "No products available.");
+        if (productService.getProductCount() == 0) {
+            displayArea.append("No products available.");
+            return;
+        }
+        // Only the first page is rendered now, the rest loads as the list is scrolled
+        productsShown = 0;
+        viewingProducts = true;
+        appendNextProductsPage();
+        displayArea.setCaretPosition(0); // keep the view at the top while pages are appended
+    }
+
+    /**
+     * Appends the next page of products (in the current sort order) to the
+     * display area
+     */
+    private void appendNextProductsPage() {
+        if (productsShown >= productService.getProductCount()) {
+            return;
+        }
+        try {
+            StringBuilder page = new StringBuilder();
+            productsShown += productService.writeProducts(filterOption, productsShown, PRODUCT_PAGE_SIZE, false, page);
+            displayArea.append(page.toString());
+        } catch (IOException ex) {
+            showError("Error loading products: " + ex.getMessage());
+        }
     }
 
     /**
@@ -590,17 +680,30 @@ public class UserFrame extends JFrame implements ActionListener {
         int confirmCheckout = JOptionPane.showConfirmDialog(this, "Are you sure you want to checkout?\nSubtotal: " + subtotalStr + "\nTax: " + taxStr + "\nTotal: " + totalPriceStr, "Confirm Logout",
                 JOptionPane.YES_NO_OPTION);
         if (confirmCheckout == JOptionPane.YES_OPTION) {
-            displayArea.setText("✓ Checkout complete! Total charged: $" + totalPriceStr + "\n");
+            // Hold the stock first so a concurrent checkout cannot sell the same units
+            StockReservation reservation = cart.reserveStock(productService);
+            if (reservation == null) {
+                showError("Some items in your cart no longer have enough stock. Please update your cart.");
+                return;
+            }
+            // Stock and order rows are saved as one logged transaction
+            Order order = new Order(usernameStr, cart.getItems(), totalPrice);
+            boolean saved;
             try {
-                cart.updateProductsStock(productService);
+                saved = orderService.placeOrder(order, reservation, productService);
             } catch (IOException ex) {
                 showError("Error during checkout: " + ex.getMessage());
+                return;
             }
-            Order order = new Order(usernameStr, cart.getItems(), totalPrice);
-            orderService.processOrder(order);
-            cart.clear();
+            // Either way the stock is taken and the order will be saved, so the cart is done
+            displayArea.setText("✓ Checkout complete! Total charged: $" + totalPriceStr + "\n");
+            cart.clear(productService);
             //still need to implement actually placing the order and saving it to orders.csv etc
-            showSuccess("Checkout complete! Thank you for your purchase.");
+            if (saved) {
+                showSuccess("Checkout complete! Thank you for your purchase.");
+            } else {
+                showSuccess("Your order was accepted and is pending. It will appear in your orders shortly.");
+            }
         }
     }
 
@@ -609,15 +712,16 @@ public class UserFrame extends JFrame implements ActionListener {
                 JOptionPane.YES_NO_OPTION);
         if (confirm == JOptionPane.YES_OPTION) {
             displayArea.setText("Logging out...\n");
+            cart.releaseHolds(productService); // give held stock back to other customers
             dispose();
             // Return to login screen, this can be removed if not needed
             try {
                 new LoginFrame((role, username) -> {
                     try {
                         if (role == Role.ADMIN) {
-                            new AdminFrame();
+                            new AdminFrame(productService);
                         } else if (role == Role.CUSTOMER) {
-                            new UserFrame(username);
+                            new UserFrame(username, productService);
                         } else {
                             System.out.println("No role found. Exiting application.");
                         }